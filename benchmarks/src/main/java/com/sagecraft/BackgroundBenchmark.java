@@ -0,0 +1,81 @@
+package com.sagecraft;
+
+import com.sagecraft.BubbleSettings.SliceSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 三段式背景 / tail 行拼接，以及缓存命中时的查表开销
+ *
+ * 字形解析两种来源对比：papi = 索引为空、走基准内的 PlaceholderAPI 替身；index = 启动时灌好的 {@link GlyphIndex}。
+ * 运行：java -jar target/benchmarks.jar BackgroundBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackgroundBenchmark {
+
+    /** 背景内宽（像素）：短消息 / 普通 / 接近 inner-px 上限 */
+    @Param({"24", "80", "152"})
+    public int innerPx;
+
+    @Param({"0", "2"})
+    public int trimPerSide;
+
+    @Param({"papi", "index"})
+    public String glyphSource;
+
+    private GlyphIndex index;
+    private SliceSet set;
+    private int rep;
+    private BackgroundCache cache;
+
+    @Setup
+    public void setup() {
+        // 与默认 config.yml 中单行气泡的套件一致
+        set = new SliceSet(13, "chatL_13", "chatM_13", "chatR_13", "chatT_13", 3, 5, 3, 7, 12);
+        index = new GlyphIndex();
+        if (glyphSource.equals("index")) {
+            index.replace(Map.of("chatbubble:chatL_13", "\uE001", "chatbubble:chatM_13", "\uE002",
+                    "chatbubble:chatR_13", "\uE003", "chatbubble:chatT_13", "\uE004"));
+        }
+        rep = BackgroundSlices.repeatFor(innerPx, set);
+        cache = new BackgroundCache(512);
+        cache.put(set.height, rep, trimPerSide, BackgroundSlices.build(index, null, rep, set, trimPerSide));
+    }
+
+    @Benchmark
+    public String threeSlice() {
+        return BackgroundSlices.threeSlice(index, null, rep, set);
+    }
+
+    @Benchmark
+    public String tailLineMidBothSides() {
+        return BackgroundSlices.tailLineMidBothSides(index, null, rep, set, trimPerSide);
+    }
+
+    @Benchmark
+    public BackgroundCache.Entry buildUncached() {
+        return BackgroundSlices.build(index, null, rep, set, trimPerSide);
+    }
+
+    @Benchmark
+    public BackgroundCache.Entry cacheHit() {
+        return cache.get(set.height, rep, trimPerSide, () -> BackgroundSlices.build(index, null, rep, set, trimPerSide));
+    }
+}
@@ -0,0 +1,71 @@
+package com.sagecraft;
+
+/**
+ * 基准用的聊天语料：每组若干条长短不一的真实风格消息，基准按顺序轮流取用，
+ * 避免单条固定输入被 JIT 特化得过于理想
+ */
+final class Corpus {
+
+    private Corpus() {
+    }
+
+    static String[] get(String name) {
+        switch (name) {
+            case "latin": return LATIN;
+            case "cjk": return CJK;
+            case "emoji": return EMOJI;
+            case "mixed": return MIXED;
+            case "overflow": return OVERFLOW;
+            default: throw new IllegalArgumentException("unknown corpus: " + name);
+        }
+    }
+
+    private static final String[] LATIN = {
+        "gg",
+        "hey everyone, anyone up for the dungeon run tonight? bring potions",
+        "brb",
+        "where is the nether portal from spawn? I keep getting lost",
+        "selling 3 stacks of iron for 20 diamonds, pm me",
+        "lol that creeper blew up my whole wheat farm",
+        "can an admin check /warp shop? it drops me in the void",
+        "thanks!",
+    };
+
+    private static final String[] CJK = {
+        "好",
+        "大家晚上好，今晚八点一起去打副本吗？记得带上药水和食物",
+        "谁知道主城传送门在哪",
+        "收铁锭，一组换五颗钻石，有意私聊",
+        "刚才苦力怕把我的麦田炸没了哈哈哈",
+        "管理在吗？商店传送点好像坏了，一传就掉虚空",
+        "こんにちは、よろしくお願いします",
+        "오늘 레이드 같이 가실 분?",
+    };
+
+    private static final String[] EMOJI = {
+        ":heart:",
+        "gg :smile: :smile: :smile:",
+        "welcome back :wave: we missed you :heart:",
+        "新活动开始啦 :star: :star: 快来主城集合 :fire:",
+        "who took my diamonds :angry: :angry: :angry: not cool",
+        "happy birthday :cake: :gift: :tada: 生日快乐！",
+    };
+
+    private static final String[] MIXED = {
+        "§a欢迎 :heart: welcome to the server <3 :smile: 有问题问管理 & have fun",
+        "§e[公告] §f服务器将在 5 分钟后重启 <restart> & 请保存进度",
+        "lol 你这个房子 looks amazing :star: 在哪学的 <build>?",
+        "§cPvP§r 区域已开放 :fire: 掉落不保护 & 小心",
+        "line one\nline two\n第三行",
+    };
+
+    private static final String[] OVERFLOW = {
+        "this message is intentionally far too long to fit into four lines of bubble text, "
+            + "so the layout has to cut it and append an ellipsis at the very end of the last line "
+            + "which used to re-measure the whole line once per removed character",
+        "这条消息故意写得很长很长，远远超过气泡四行能放下的宽度，所以排版需要在最后一行截断并加上省略号，"
+            + "旧版实现每删掉一个字符都要重新测量整行的宽度，长消息时开销明显",
+        "spam spam spam spam spam spam spam spam spam spam spam spam spam spam spam spam spam spam "
+            + ":heart: :heart: :heart: :heart: :heart: :heart: :heart: :heart: :heart: :heart: :heart:",
+    };
+}
@@ -0,0 +1,110 @@
+package com.sagecraft;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 旧版多遍文本处理流程的原样拷贝，仅作为 {@link TextLayoutBenchmark} 的对照组
+ *
+ * preprocessEmojiToIA -> strip -> wrapByPxRespectingNewlinesScaled -> hardCapReplaceLastChar -> 三次 replace 转义
+ */
+final class LegacyTextPipeline {
+
+    private static final Pattern EMOJI_COLON = Pattern.compile(":([A-Za-z0-9_]+):");
+
+    private final GlyphWidths glyphs;
+    private final int innerPx;
+    private final int maxLines;
+    private final String ellipsis;
+
+    LegacyTextPipeline(GlyphWidths glyphs, int innerPx, int maxLines, String ellipsis) {
+        this.glyphs = glyphs;
+        this.innerPx = innerPx;
+        this.maxLines = maxLines;
+        this.ellipsis = ellipsis;
+    }
+
+    /** 与旧 onChat 中的文本部分等价：返回已转义的每一行 */
+    List<String> run(String raw) {
+        String cleaned = strip(preprocessEmojiToIA(raw));
+        List<String> lines = wrapByPxRespectingNewlinesScaled(cleaned, innerPx, 1.0);
+        if (lines.size() > maxLines) {
+            lines = hardCapReplaceLastChar(lines, maxLines, innerPx, 1.0, ellipsis);
+        }
+        List<String> out = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            out.add(line.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"));
+        }
+        return out;
+    }
+
+    String preprocessEmojiToIA(String s) {
+        if (s == null || s.isEmpty()) return "";
+        return EMOJI_COLON.matcher(s).replaceAll("%img_$1%");
+    }
+
+    String strip(String s) {
+        return s == null ? "" : s.replaceAll("§[0-9A-FK-ORa-fk-or]", "");
+    }
+
+    List<String> splitByNewlines(String s) {
+        String[] parts = s.split("\\r?\\n", -1);
+        return parts.length == 0 ? List.of("") : Arrays.asList(parts);
+    }
+
+    List<String> wrapByPxRespectingNewlinesScaled(String s, int inner, double widthMul) {
+        List<String> out = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        int cur = 0;
+        for (int i = 0; i < s.length(); ) {
+            int cp = s.codePointAt(i);
+            i += Character.charCount(cp);
+
+            if (cp == '\r') continue;
+            if (cp == '\n') { out.add(line.toString()); line.setLength(0); cur = 0; continue; }
+
+            String ch = new String(Character.toChars(cp));
+            int w = pxScaled(ch, widthMul);
+
+            if (cur + w > inner && line.length() > 0) {
+                out.add(line.toString());
+                line.setLength(0);
+                cur = 0;
+            }
+            line.append(ch);
+            cur += w;
+        }
+        out.add(line.toString());
+        return out;
+    }
+
+    int pxScaled(String s, double widthMul) {
+        return (int) Math.round(glyphs.width(s) * widthMul);
+    }
+
+    List<String> hardCapReplaceLastChar(List<String> lines, int maxLines, int innerPx, double widthMul, String ellipsis) {
+        List<String> out = new ArrayList<>(lines.subList(0, maxLines));
+        String last = out.get(maxLines - 1);
+
+        last = removeLastCodePoint(last);
+
+        while (pxScaled(last + ellipsis, widthMul) > innerPx && last.length() > 0) {
+            last = removeLastCodePoint(last);
+        }
+        if (last.isEmpty() && pxScaled(ellipsis, widthMul) > innerPx) {
+            out.set(maxLines - 1, "");
+        } else {
+            out.set(maxLines - 1, last + ellipsis);
+        }
+        return out;
+    }
+
+    private String removeLastCodePoint(String s) {
+        if (s == null || s.isEmpty()) return "";
+        int end = s.length();
+        int start = s.offsetByCodePoints(end, -1);
+        return s.substring(0, start);
+    }
+}
@@ -0,0 +1,259 @@
+package com.sagecraft;
+
+import com.github.retrooper.packetevents.manager.server.ServerVersion;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * 无服务器的压测模拟器：N 个模拟玩家按给定频率聊天，驱动真实的 {@link PacketEventsBubbleManager}
+ *
+ * Bukkit 与 PacketEvents 都是进程内替身（{@link SimServer} / {@link SimNetwork}），
+ * 包只计数不发送。报告主线程每 tick 耗时、每个观察者每秒收到的包数 / 字节数、分配速率和存活气泡的内存占用。
+ *
+ * 运行：java -cp target/benchmarks.jar com.sagecraft.LoadSimulator --players 500 --area 48 --rate 6
+ *   --players N      模拟玩家数（默认 200）
+ *   --area N         玩家随机分布的正方形边长，方块（默认 64，越小同屏人数越多）
+ *   --rate N         每个玩家每分钟发言次数（默认 4）
+ *   --seconds N      模拟时长，秒（默认 60，另有 10 秒预热不计入）
+ *   --move F         每 tick 走动的玩家比例 0..1（默认 0.05）
+ *   --fast           不按 50ms 节拍等待，tick 一结束就跑下一个（工作线程可能跟不上）
+ *   --set key=value  覆盖 config.yml 中的项，如 --set bubble.queue.policy=stack
+ */
+public final class LoadSimulator {
+
+    private static final int TICKS_PER_SECOND = 20;
+    private static final long TICK_NANOS = 50_000_000L;
+    private static final int WARMUP_SECONDS = 10;
+
+    /** 用测试构造器创建的插件实例（不经过 PluginClassLoader） */
+    static final class SimPlugin extends JavaPlugin {
+        SimPlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+            super(loader, description, dataFolder, file);
+        }
+    }
+
+    private int players = 200;
+    private int area = 64;
+    private double rate = 4;
+    private int seconds = 60;
+    private double move = 0.05;
+    private boolean fast;
+    private final List<String[]> overrides = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        LoadSimulator sim = new LoadSimulator();
+        sim.parse(args);
+        sim.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--players": players = Integer.parseInt(args[++i]); break;
+                case "--area": area = Integer.parseInt(args[++i]); break;
+                case "--rate": rate = Double.parseDouble(args[++i]); break;
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--move": move = Double.parseDouble(args[++i]); break;
+                case "--fast": fast = true; break;
+                case "--set": {
+                    String kv = args[++i];
+                    int eq = kv.indexOf('=');
+                    if (eq <= 0) throw new IllegalArgumentException("--set 需要 key=value: " + kv);
+                    overrides.add(new String[]{kv.substring(0, eq), kv.substring(eq + 1)});
+                    break;
+                }
+                default: throw new IllegalArgumentException("未知参数: " + args[i]);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        // ---- 环境 ----
+        SimServer server = new SimServer();
+        Bukkit.setServer(server.server());
+        SimNetwork network = new SimNetwork(ClientVersion.V_1_21_5);
+        StubPacketEvents.install(ServerVersion.V_1_21_5, network.protocolManager(), network.playerManager());
+
+        File dataFolder = Files.createTempDirectory("chatbubble-sim").toFile();
+        dataFolder.deleteOnExit();
+        SimPlugin plugin = new SimPlugin(new JavaPluginLoader(server.server()),
+                new PluginDescriptionFile("ChatBubble", "sim", Main.class.getName()),
+                dataFolder, new File(dataFolder, "ChatBubble.jar"));
+        plugin.getLogger().setLevel(Level.WARNING);
+        for (String[] kv : overrides) plugin.getConfig().set(kv[0], parseValue(kv[1]));
+
+        final AtomicInteger entityIds = new AtomicInteger(1_000_000);
+        PacketEventsBubbleManager manager = new PacketEventsBubbleManager(plugin, entityIds::incrementAndGet);
+        manager.start();
+
+        // ---- 玩家 ----
+        SplittableRandom rnd = new SplittableRandom(42);
+        List<SimServer.SimPlayer> all = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            SimServer.SimPlayer p = server.join("sim" + i, entityIds.incrementAndGet(),
+                    rnd.nextDouble(area) - area / 2.0, rnd.nextDouble(area) - area / 2.0);
+            network.connect(p);
+            manager.trackPlayer(p.proxy, p.proxy.getLocation());
+            all.add(p);
+        }
+        String[] corpus = concat(Corpus.get("latin"), Corpus.get("cjk"), Corpus.get("emoji"), Corpus.get("mixed"));
+        final double chatChance = rate / 60.0 / TICKS_PER_SECOND;
+
+        System.out.printf("模拟 %d 名玩家，%d×%d 方块区域，每人每分钟 %.1f 条，%d 秒（预热 %d 秒）%s%n",
+                players, area, area, rate, seconds, WARMUP_SECONDS, fast ? "，不限速" : "");
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBaseline = usedHeapAfterGc(memory);
+
+        // ---- 主循环 ----
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final int warmupTicks = WARMUP_SECONDS * TICKS_PER_SECOND;
+        final int totalTicks = warmupTicks + seconds * TICKS_PER_SECOND;
+        final long[] tickNanos = new long[totalTicks - warmupTicks];
+        long mainAllocStart = 0, totalAllocStart = 0, packetsStart = 0, bytesStart = 0, wallStart = 0;
+        int overBudget = 0;
+        long next = System.nanoTime();
+
+        for (int tick = 0; tick < totalTicks; tick++) {
+            if (tick == warmupTicks) {
+                manager.resetStats();
+                mainAllocStart = threads.getCurrentThreadAllocatedBytes();
+                totalAllocStart = threads.getTotalThreadAllocatedBytes();
+                packetsStart = sumPackets(network);
+                bytesStart = sumBytes(network);
+                wallStart = System.nanoTime();
+            }
+
+            // 聊天与走动在"netty / 客户端"一侧，不计入主线程耗时
+            for (SimServer.SimPlayer p : all) {
+                if (rnd.nextDouble() < chatChance) {
+                    manager.onChat(p.proxy, corpus[rnd.nextInt(corpus.length)]);
+                }
+                if (move > 0 && rnd.nextDouble() < move) {
+                    p.x = clamp(p.x + rnd.nextDouble(-1.0, 1.0), area);
+                    p.z = clamp(p.z + rnd.nextDouble(-1.0, 1.0), area);
+                    Location to = p.proxy.getLocation();
+                    manager.trackPlayer(p.proxy, to);
+                }
+            }
+
+            long t0 = System.nanoTime();
+            server.tick();
+            long dt = System.nanoTime() - t0;
+            if (tick >= warmupTicks) {
+                tickNanos[tick - warmupTicks] = dt;
+                if (dt > TICK_NANOS) overBudget++;
+            }
+
+            if (!fast) {
+                next += TICK_NANOS;
+                long sleep = next - System.nanoTime();
+                if (sleep > 0) Thread.sleep(sleep / 1_000_000L, (int) (sleep % 1_000_000L));
+                else next = System.nanoTime();
+            }
+        }
+
+        // ---- 报告 ----
+        double wallSeconds = (System.nanoTime() - wallStart) / 1e9;
+        double simSeconds = seconds;
+        long mainAlloc = threads.getCurrentThreadAllocatedBytes() - mainAllocStart;
+        long totalAlloc = threads.getTotalThreadAllocatedBytes() - totalAllocStart;
+        long packets = sumPackets(network) - packetsStart;
+        long bytes = sumBytes(network) - bytesStart;
+        final int[] liveOut = new int[1];
+        // 模拟器在拥有唯一分区的线程上运行：回调在当前调用内完成
+        manager.liveBubbles(n -> liveOut[0] = n);
+        int live = liveOut[0];
+        long heapLive = usedHeapAfterGc(memory);
+
+        Arrays.sort(tickNanos);
+        System.out.println();
+        System.out.println("== 主线程（每 tick，含驱动任务与出站写出） ==");
+        System.out.printf("  avg %.3fms  p50 %.3fms  p99 %.3fms  max %.3fms  超过 50ms 的 tick: %d / %d%n",
+                avg(tickNanos) / 1e6, pct(tickNanos, 0.50) / 1e6, pct(tickNanos, 0.99) / 1e6,
+                tickNanos[tickNanos.length - 1] / 1e6, overBudget, tickNanos.length);
+        System.out.println("== 网络 ==");
+        System.out.printf("  每个观察者每秒 %.1f 包 / %.1f KiB（合计 %d 包，%.2f MiB）%n",
+                packets / (double) players / simSeconds, bytes / 1024.0 / players / simSeconds,
+                packets, bytes / (1024.0 * 1024.0));
+        System.out.println("== 分配 ==");
+        System.out.printf("  主线程 %.1f KiB/tick；全进程 %.1f MiB/s（含模拟器自身）%n",
+                mainAlloc / 1024.0 / tickNanos.length, totalAlloc / (1024.0 * 1024.0) / wallSeconds);
+        System.out.println("== 内存 ==");
+        System.out.printf("  存活气泡 %d，堆增量 %.1f KiB，约 %.0f B/气泡（含队列、元数据记录等插件状态）%n",
+                live, (heapLive - heapBaseline) / 1024.0,
+                live == 0 ? 0.0 : (heapLive - heapBaseline) / (double) live);
+        System.out.println("== /cb stats ==");
+        manager.stats(lines -> lines.forEach(line -> System.out.println("  " + line)));
+
+        manager.shutdown();
+    }
+
+    private static Object parseValue(String v) {
+        if (v.equalsIgnoreCase("true") || v.equalsIgnoreCase("false")) return Boolean.parseBoolean(v);
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            return Double.parseDouble(v);
+        } catch (NumberFormatException ignored) {
+        }
+        return v;
+    }
+
+    private static double clamp(double v, int area) {
+        double h = area / 2.0;
+        return Math.max(-h, Math.min(h, v));
+    }
+
+    private static String[] concat(String[]... parts) {
+        List<String> out = new ArrayList<>();
+        for (String[] p : parts) out.addAll(Arrays.asList(p));
+        return out.toArray(new String[0]);
+    }
+
+    private static long sumPackets(SimNetwork network) {
+        long n = 0;
+        for (SimNetwork.Viewer v : network.viewers()) n += v.packets.sum();
+        return n;
+    }
+
+    private static long sumBytes(SimNetwork network) {
+        long n = 0;
+        for (SimNetwork.Viewer v : network.viewers()) n += v.bytes.sum();
+        return n;
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static double avg(long[] sorted) {
+        long s = 0;
+        for (long v : sorted) s += v;
+        return sorted.length == 0 ? 0 : s / (double) sorted.length;
+    }
+
+    private static long pct(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * p) - 1)];
+    }
+}
@@ -0,0 +1,108 @@
+package com.sagecraft;
+
+import com.github.retrooper.packetevents.manager.server.ServerVersion;
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
+import com.github.retrooper.packetevents.netty.buffer.UnpooledByteBufAllocationHelper;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.util.Vector3f;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
+import com.sagecraft.BubbleSettings.SliceSet;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个气泡 [bg, text, tail] 三个实体的元数据包序列化
+ *
+ * spawn：生成时的完整元数据（与插件 spawnMetadata 相同）；text：原地换字只发 META_TEXT；
+ * frame：逐 tick 动画的一帧缩放。只测 wrapper 构造 + 写入缓冲区，不含包 id 和压缩。
+ * 运行：java -jar target/benchmarks.jar MetadataEncodingBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataEncodingBenchmark {
+
+    private static final int META_SCALE = 12;
+    private static final int META_TEXT = 23;
+
+    @Param({"latin", "cjk", "overflow"})
+    public String corpus;
+
+    private final int[] entityIds = {100001, 100002, 100003};
+    private Component[] layers;
+
+    @Setup
+    public void setup() {
+        StubPacketEvents.install(ServerVersion.V_1_21_5);
+        TextLayout layout = new TextLayout(GlyphWidths.fallback(6), new GlyphIndex(), 140, 1.0, 4, "...", true);
+        TextLayout.Result r = layout.layout(Corpus.get(corpus)[1]);
+        MiniMessage mm = MiniMessage.miniMessage();
+        Component text = Component.join(Component.newline(),
+                r.lines.stream().map(l -> mm.deserialize("<#111111>" + l + "</#111111>")).toList());
+        SliceSet set = new SliceSet(13, "chatL_13", "chatM_13", "chatR_13", "chatT_13", 3, 5, 3, 7, 12);
+        BackgroundCache.Entry bg = BackgroundSlices.build(null, BackgroundSlices.repeatFor(r.maxWidth + 12, set), set, 0);
+        layers = new Component[]{bg.background, text, bg.tail};
+    }
+
+    @Benchmark
+    public int spawn() {
+        int bytes = 0;
+        for (int i = 0; i < 3; i++) {
+            List<EntityData<?>> md = PacketEventsBubbleManager.spawnMetadata(layers[i], i, 0.35f, 0.05f, 0, false);
+            bytes += encode(new WrapperPlayServerEntityMetadata(entityIds[i], md));
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public int text() {
+        int bytes = 0;
+        for (int i = 0; i < 3; i++) {
+            List<EntityData<?>> md = List.of(new EntityData<>(META_TEXT, EntityDataTypes.ADV_COMPONENT, layers[i]));
+            bytes += encode(new WrapperPlayServerEntityMetadata(entityIds[i], md));
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public int frame() {
+        int bytes = 0;
+        for (int i = 0; i < 3; i++) {
+            List<EntityData<?>> md = List.of(new EntityData<>(META_SCALE, EntityDataTypes.VECTOR3F, new Vector3f(0.5f, 0.5f, 0.5f)));
+            bytes += encode(new WrapperPlayServerEntityMetadata(entityIds[i], md));
+        }
+        return bytes;
+    }
+
+    /** 写入一个新缓冲区，返回字节数后释放 */
+    private static int encode(PacketWrapper<?> wrapper) {
+        Object buf = UnpooledByteBufAllocationHelper.buffer();
+        try {
+            wrapper.setBuffer(buf);
+            wrapper.write();
+            return ByteBufHelper.readableBytes(buf);
+        } finally {
+            wrapper.setBuffer(null);
+            ByteBufHelper.release(buf);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.sagecraft;
+
+import me.clip.placeholderapi.PlaceholderAPI;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文本层组件构建：旧的逐行"模板替换 → (PAPI) → MiniMessage 解析"，
+ * 与 {@link MessageTemplate} 的预编译插槽（不带缓存 / 带缓存）对比
+ *
+ * 输入是已经排好版、转义过的行，只测组件构建本身。
+ * 运行：java -jar target/benchmarks.jar MiniMessageBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MiniMessageBenchmark {
+
+    @Param({"latin", "cjk", "emoji", "mixed"})
+    public String corpus;
+
+    /** 默认模板 / 带渐变与粗体的复杂模板 */
+    @Param({"<#111111>%message%</#111111>", "<gradient:#ff8800:#ffee00><b>%message%</b></gradient>"})
+    public String template;
+
+    @Param({"false", "true"})
+    public boolean usePapi;
+
+    private final MiniMessage mm = MiniMessage.miniMessage();
+    private List<String>[] lines;
+    private int next;
+    private MessageTemplate uncached;
+    private MessageTemplate cached;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        TextLayout layout = new TextLayout(GlyphWidths.fallback(6), new GlyphIndex(), 140, 1.0, 4, "...", true);
+        String[] messages = Corpus.get(corpus);
+        lines = new List[messages.length];
+        for (int i = 0; i < messages.length; i++) lines[i] = layout.layout(messages[i]).lines;
+        uncached = new MessageTemplate(template, usePapi, 0);
+        cached = new MessageTemplate(template, usePapi, 1024);
+    }
+
+    private List<String> nextLines() {
+        List<String> in = lines[next];
+        next = next + 1 == lines.length ? 0 : next + 1;
+        return in;
+    }
+
+    @Benchmark
+    public Component perLineParse() {
+        List<String> in = nextLines();
+        List<Component> parts = new ArrayList<>(in.size());
+        for (String safe : in) {
+            String mmText = template.replace("%message%", safe);
+            if (usePapi) mmText = PlaceholderAPI.setPlaceholders((Player) null, mmText);
+            parts.add(mm.deserialize(mmText));
+        }
+        return Component.join(Component.newline(), parts);
+    }
+
+    @Benchmark
+    public Component precompiled() {
+        return render(uncached, nextLines());
+    }
+
+    @Benchmark
+    public Component precompiledCached() {
+        return render(cached, nextLines());
+    }
+
+    private static Component render(MessageTemplate t, List<String> in) {
+        List<Component> parts = new ArrayList<>(in.size());
+        for (String safe : in) parts.add(t.render(null, safe));
+        return Component.join(Component.newline(), parts);
+    }
+}
@@ -0,0 +1,127 @@
+package com.sagecraft;
+
+import com.github.retrooper.packetevents.manager.player.PlayerManager;
+import com.github.retrooper.packetevents.manager.protocol.ProtocolManager;
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
+import com.github.retrooper.packetevents.netty.buffer.UnpooledByteBufAllocationHelper;
+import com.github.retrooper.packetevents.protocol.ConnectionState;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.protocol.player.UserProfile;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.bukkit.entity.Player;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测模拟器里的 PacketEvents 替身：每个模拟玩家一个 {@link User}，
+ * 写出的包只计数、计字节然后释放，不经过真正的 socket
+ *
+ * 通道是 netty 的 EmbeddedChannel，{@link SharedPacket} 的"编码一次"路径照常使用池化缓冲区。
+ */
+final class SimNetwork {
+
+    /** 一个观察者收到的包 */
+    static final class Viewer {
+        final User user;
+        final LongAdder packets = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder flushes = new LongAdder();
+
+        Viewer(User user) {
+            this.user = user;
+        }
+    }
+
+    private final ClientVersion clientVersion;
+    private final Map<Player, Viewer> byPlayer = new ConcurrentHashMap<>();
+    private final Map<Object, Viewer> byChannel = new ConcurrentHashMap<>();
+    private final ProtocolManager protocol;
+    private final PlayerManager players;
+
+    SimNetwork(ClientVersion clientVersion) {
+        this.clientVersion = clientVersion;
+        this.protocol = SimServer.proxy(ProtocolManager.class, (self, m, args) -> {
+            switch (m.getName()) {
+                case "writePacket":
+                case "sendPacket":
+                case "writePacketSilently":
+                case "sendPacketSilently":
+                    if (args.length >= 2) written(args[0], args[1]);
+                    return null;
+                case "flushPackets":
+                    if (args.length >= 1) flushed(args[0]);
+                    return null;
+                default:
+                    return null;
+            }
+        });
+        this.players = SimServer.proxy(PlayerManager.class, (self, m, args) -> {
+            if (m.getName().equals("getUser") && args.length == 1) {
+                Viewer v = byPlayer.get(args[0]);
+                return v == null ? null : v.user;
+            }
+            return null;
+        });
+    }
+
+    ProtocolManager protocolManager() {
+        return protocol;
+    }
+
+    PlayerManager playerManager() {
+        return players;
+    }
+
+    /** 为模拟玩家建立连接 */
+    Viewer connect(SimServer.SimPlayer p) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        User user = new User(channel, ConnectionState.PLAY, clientVersion, new UserProfile(p.id, p.name));
+        Viewer v = new Viewer(user);
+        byPlayer.put(p.proxy, v);
+        byChannel.put(channel, v);
+        return v;
+    }
+
+    Collection<Viewer> viewers() {
+        return byPlayer.values();
+    }
+
+    private void written(Object channel, Object payload) {
+        Viewer v = byChannel.get(channel);
+        int bytes;
+        if (payload instanceof PacketWrapper<?> wrapper) {
+            bytes = encodedSize(wrapper);
+        } else {
+            bytes = ByteBufHelper.readableBytes(payload);
+            ByteBufHelper.release(payload);
+        }
+        if (v == null) return;
+        v.packets.increment();
+        v.bytes.add(bytes);
+    }
+
+    private void flushed(Object channel) {
+        Viewer v = byChannel.get(channel);
+        if (v != null) v.flushes.increment();
+    }
+
+    /** 回退路径（未预编码的 wrapper）：自己编码一次量出大小 */
+    private static int encodedSize(PacketWrapper<?> wrapper) {
+        Object buf = UnpooledByteBufAllocationHelper.buffer();
+        try {
+            wrapper.setBuffer(buf);
+            wrapper.write();
+            return ByteBufHelper.readableBytes(buf);
+        } catch (Exception e) {
+            return 0;
+        } finally {
+            wrapper.setBuffer(null);
+            ByteBufHelper.release(buf);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.sagecraft;
+
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * 压测模拟器里的 Bukkit 替身：Server / 调度器 / 世界 / 玩家都是动态代理
+ *
+ * 只实现插件实际调用到的方法，其余返回零值。主线程就是调用 {@link #tick()} 的线程：
+ * runTask 排进队列，runTaskTimer 每 tick 执行一次，顺序与 CraftScheduler 一致（先一次性任务，后周期任务）。
+ */
+final class SimServer {
+
+    /** 模拟玩家：可移动、可下线 */
+    static final class SimPlayer {
+        final UUID id;
+        final String name;
+        final int entityId;
+        final Player proxy;
+        volatile double x, z;
+        volatile boolean online = true;
+
+        SimPlayer(UUID id, String name, int entityId, World world, double x, double z) {
+            this.id = id;
+            this.name = name;
+            this.entityId = entityId;
+            this.x = x;
+            this.z = z;
+            this.proxy = proxy(Player.class, (self, m, args) -> {
+                switch (m.getName()) {
+                    case "getUniqueId": return id;
+                    case "getName":
+                    case "getDisplayName": return name;
+                    case "getEntityId": return entityId;
+                    case "getWorld": return world;
+                    case "getLocation": return new Location(world, this.x, 64, this.z);
+                    case "isOnline":
+                    case "isValid": return online;
+                    case "isSneaking": return false;
+                    case "getType": return EntityType.PLAYER;
+                    default: return null;
+                }
+            });
+        }
+    }
+
+    private final Logger logger = Logger.getLogger("SimServer");
+    private final World world;
+    private final Map<UUID, SimPlayer> players = new ConcurrentHashMap<>();
+    private final Queue<Runnable> once = new ConcurrentLinkedQueue<>();
+    private final List<Runnable> repeating = new CopyOnWriteArrayList<>();
+    private final Server server;
+
+    SimServer() {
+        final UUID worldId = UUID.randomUUID();
+        this.world = proxy(World.class, (self, m, args) -> {
+            switch (m.getName()) {
+                case "getUID": return worldId;
+                case "getName": return "hub";
+                default: return null;
+            }
+        });
+        final BukkitScheduler scheduler = proxy(BukkitScheduler.class, (self, m, args) -> {
+            switch (m.getName()) {
+                case "runTask":
+                    once.add((Runnable) args[1]);
+                    return task(() -> { });
+                case "runTaskTimer": {
+                    Runnable r = (Runnable) args[1];
+                    repeating.add(r);
+                    return task(() -> repeating.remove(r));
+                }
+                default: return null;
+            }
+        });
+        this.server = proxy(Server.class, (self, m, args) -> {
+            switch (m.getName()) {
+                case "getScheduler": return scheduler;
+                case "isPrimaryThread": return true;
+                case "getLogger": return logger;
+                case "getName": return "ChatBubble-Sim";
+                case "getVersion":
+                case "getBukkitVersion":
+                case "getMinecraftVersion": return "1.21.8";
+                case "getPlayer":
+                    if (args.length == 1 && args[0] instanceof UUID id) {
+                        SimPlayer p = players.get(id);
+                        return p == null || !p.online ? null : p.proxy;
+                    }
+                    return null;
+                case "getOnlinePlayers": {
+                    List<Player> out = new ArrayList<>();
+                    for (SimPlayer p : players.values()) if (p.online) out.add(p.proxy);
+                    return Collections.unmodifiableList(out);
+                }
+                case "getWorlds": return List.of(world);
+                default: return null;
+            }
+        });
+    }
+
+    Server server() {
+        return server;
+    }
+
+    World world() {
+        return world;
+    }
+
+    SimPlayer join(String name, int entityId, double x, double z) {
+        SimPlayer p = new SimPlayer(UUID.randomUUID(), name, entityId, world, x, z);
+        players.put(p.id, p);
+        return p;
+    }
+
+    Collection<SimPlayer> players() {
+        return players.values();
+    }
+
+    /** 一个服务器 tick：先跑排队的一次性任务，再跑周期任务 */
+    void tick() {
+        for (int n = once.size(); n > 0; n--) {
+            Runnable r = once.poll();
+            if (r == null) break;
+            r.run();
+        }
+        for (Runnable r : repeating) r.run();
+    }
+
+    private static BukkitTask task(Runnable cancel) {
+        return proxy(BukkitTask.class, (self, m, args) -> {
+            if (m.getName().equals("cancel")) cancel.run();
+            return null;
+        });
+    }
+
+    /**
+     * 接口的动态代理：handler 返回 null 时按返回类型给零值；
+     * equals / hashCode / toString 按代理对象自身的身份处理
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(SimServer.class.getClassLoader(), new Class<?>[]{type}, (self, m, args) -> {
+            switch (m.getName()) {
+                case "equals": if (m.getParameterCount() == 1) return self == args[0]; break;
+                case "hashCode": if (m.getParameterCount() == 0) return System.identityHashCode(self); break;
+                case "toString": if (m.getParameterCount() == 0) return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(self)); break;
+                default: break;
+            }
+            Object r = handler.invoke(self, m, args == null ? new Object[0] : args);
+            return r != null ? r : zero(m);
+        });
+    }
+
+    private static Object zero(Method m) {
+        Class<?> t = m.getReturnType();
+        if (!t.isPrimitive() || t == void.class) return null;
+        if (t == boolean.class) return false;
+        if (t == char.class) return '\0';
+        if (t == long.class) return 0L;
+        if (t == float.class) return 0f;
+        if (t == double.class) return 0d;
+        if (t == byte.class) return (byte) 0;
+        if (t == short.class) return (short) 0;
+        return 0;
+    }
+}
@@ -0,0 +1,104 @@
+package com.sagecraft;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.PacketEventsAPI;
+import com.github.retrooper.packetevents.injector.ChannelInjector;
+import com.github.retrooper.packetevents.manager.player.PlayerManager;
+import com.github.retrooper.packetevents.manager.protocol.ProtocolManager;
+import com.github.retrooper.packetevents.manager.server.ServerManager;
+import com.github.retrooper.packetevents.manager.server.ServerVersion;
+import com.github.retrooper.packetevents.netty.NettyManager;
+import io.github.retrooper.packetevents.impl.netty.NettyManagerImpl;
+
+/**
+ * 不连接服务器的 PacketEvents 实例，只提供编码所需的部分：服务端版本 + netty 缓冲区操作
+ *
+ * 包的构造与序列化会用到 {@code PacketEvents.getAPI()}。协议 / 玩家管理器由压测模拟器提供替身，
+ * 编码基准里用不到时为 null；注入器始终为 null。
+ */
+final class StubPacketEvents extends PacketEventsAPI<Object> {
+
+    private final ServerManager serverManager;
+    private final NettyManager nettyManager = new NettyManagerImpl();
+    private final ProtocolManager protocolManager;
+    private final PlayerManager playerManager;
+
+    private StubPacketEvents(ServerVersion version, ProtocolManager protocolManager, PlayerManager playerManager) {
+        this.protocolManager = protocolManager;
+        this.playerManager = playerManager;
+        this.serverManager = new ServerManager() {
+            @Override
+            public ServerVersion getVersion() {
+                return version;
+            }
+        };
+    }
+
+    /** 安装为全局 API（幂等） */
+    static synchronized void install(ServerVersion version) {
+        if (PacketEvents.getAPI() instanceof StubPacketEvents) return;
+        PacketEvents.setAPI(new StubPacketEvents(version, null, null));
+    }
+
+    /** 安装为全局 API，并接上协议 / 玩家管理器替身 */
+    static synchronized void install(ServerVersion version, ProtocolManager protocol, PlayerManager players) {
+        PacketEvents.setAPI(new StubPacketEvents(version, protocol, players));
+    }
+
+    @Override
+    public void load() {
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return true;
+    }
+
+    @Override
+    public void init() {
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return true;
+    }
+
+    @Override
+    public void terminate() {
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public Object getPlugin() {
+        return null;
+    }
+
+    @Override
+    public ServerManager getServerManager() {
+        return serverManager;
+    }
+
+    @Override
+    public ProtocolManager getProtocolManager() {
+        return protocolManager;
+    }
+
+    @Override
+    public PlayerManager getPlayerManager() {
+        return playerManager;
+    }
+
+    @Override
+    public ChannelInjector getInjector() {
+        return null;
+    }
+
+    @Override
+    public NettyManager getNettyManager() {
+        return nettyManager;
+    }
+}
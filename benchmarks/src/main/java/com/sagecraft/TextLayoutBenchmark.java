@@ -0,0 +1,88 @@
+package com.sagecraft;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单遍 {@link TextLayout} 与旧版多遍流程的对比；另外单独测旧版的换行与截断两步
+ *
+ * 运行：java -jar target/benchmarks.jar TextLayoutBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextLayoutBenchmark {
+
+    private static final int INNER_PX = 140;
+    private static final int MAX_LINES = 4;
+
+    @Param({"latin", "cjk", "emoji", "mixed", "overflow"})
+    public String corpus;
+
+    private String[] messages;
+    /** 旧版换行前的文本（已去颜色码、替换表情），单测 wrap 用 */
+    private String[] cleaned;
+    /** 旧版换行后的结果，单测 hard cap 用 */
+    private List<String>[] wrapped;
+    private int next;
+    private TextLayout layout;
+    private LegacyTextPipeline legacy;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        GlyphWidths glyphs = GlyphWidths.fallback(6);
+        layout = new TextLayout(glyphs, new GlyphIndex(), INNER_PX, 1.0, MAX_LINES, "...", true);
+        legacy = new LegacyTextPipeline(glyphs, INNER_PX, MAX_LINES, "...");
+        messages = Corpus.get(corpus);
+        cleaned = new String[messages.length];
+        wrapped = new List[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            cleaned[i] = legacy.strip(legacy.preprocessEmojiToIA(messages[i]));
+            wrapped[i] = legacy.wrapByPxRespectingNewlinesScaled(cleaned[i], INNER_PX, 1.0);
+        }
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == messages.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public TextLayout.Result singlePass() {
+        return layout.layout(messages[nextIndex()]);
+    }
+
+    @Benchmark
+    public List<String> legacyMultiPass() {
+        return legacy.run(messages[nextIndex()]);
+    }
+
+    @Benchmark
+    public List<String> legacyWrapByPxRespectingNewlinesScaled() {
+        return legacy.wrapByPxRespectingNewlinesScaled(cleaned[nextIndex()], INNER_PX, 1.0);
+    }
+
+    @Benchmark
+    public List<String> legacyHardCapReplaceLastChar() {
+        // 与旧流程一致：只有超出行数时才截断
+        List<String> lines = wrapped[nextIndex()];
+        return lines.size() > MAX_LINES ? legacy.hardCapReplaceLastChar(lines, MAX_LINES, INNER_PX, 1.0, "...") : lines;
+    }
+}
@@ -0,0 +1,46 @@
+package me.clip.placeholderapi;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 基准用的 PlaceholderAPI 替身（插件里 PlaceholderAPI 是 provided 依赖，不会进入基准的类路径）
+ *
+ * 只模拟 ItemsAdder 的 %img_xxx% 展开：每个名字分配一个私用区字符，其余文本原样返回。
+ * 扫描与替换的开销与真实实现同一量级，但不包含扩展查找与玩家相关的逻辑。
+ */
+public final class PlaceholderAPI {
+
+    private static final ConcurrentMap<String, String> GLYPHS = new ConcurrentHashMap<>();
+
+    private PlaceholderAPI() {
+    }
+
+    public static String setPlaceholders(Player player, String text) {
+        return setPlaceholders((OfflinePlayer) player, text);
+    }
+
+    public static String setPlaceholders(OfflinePlayer player, String text) {
+        if (text == null || text.indexOf('%') < 0) return text;
+        StringBuilder out = null;
+        int from = 0;
+        int i = text.indexOf("%img_");
+        while (i >= 0) {
+            int end = text.indexOf('%', i + 5);
+            if (end < 0) break;
+            if (out == null) out = new StringBuilder(text.length());
+            out.append(text, from, i).append(glyph(text.substring(i + 5, end)));
+            from = end + 1;
+            i = text.indexOf("%img_", from);
+        }
+        if (out == null) return text;
+        return out.append(text, from, text.length()).toString();
+    }
+
+    private static String glyph(String name) {
+        return GLYPHS.computeIfAbsent(name, n -> String.valueOf((char) (0xE000 + GLYPHS.size())));
+    }
+}
@@ -0,0 +1,100 @@
+package com.sagecraft;
+
+import net.kyori.adventure.text.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 三段式背景 / tail 行成品的有界 LRU 缓存
+ *
+ * 背景只由 (高度, mid 重复次数, tail 两侧裁剪量) 决定，组合数很少；
+ * 命中时一次查表就拿到两条现成的 Component，不再走 PlaceholderAPI 和 String.repeat。
+ * /cb reload 时清空并按新配置预热。
+ */
+final class BackgroundCache {
+
+    /** 背景行 + tail 行 */
+    static final class Entry {
+        final Component background;
+        final Component tail;
+
+        Entry(Component background, Component tail) {
+            this.background = background;
+            this.tail = tail;
+        }
+    }
+
+    private final Map<Long, Entry> map;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    BackgroundCache(int capacity) {
+        final int cap = Math.max(16, capacity);
+        this.map = new LinkedHashMap<>(cap * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > cap;
+            }
+        };
+    }
+
+    static long key(int height, int repeat, int trim) {
+        return ((long) height << 40) | ((long) (repeat & 0xFFFFF) << 20) | (trim & 0xFFFFF);
+    }
+
+    /** 取缓存；未命中时调用 builder 构建并放入 */
+    Entry get(int height, int repeat, int trim, Supplier<Entry> builder) {
+        final long k = key(height, repeat, trim);
+        synchronized (map) {
+            Entry e = map.get(k);
+            if (e != null) {
+                hits.increment();
+                return e;
+            }
+        }
+        misses.increment();
+        Entry built = builder.get();
+        synchronized (map) {
+            Entry raced = map.putIfAbsent(k, built);
+            return raced != null ? raced : built;
+        }
+    }
+
+    /** 预热时直接放入，不计入命中统计 */
+    void put(int height, int repeat, int trim, Entry e) {
+        synchronized (map) {
+            map.put(key(height, repeat, trim), e);
+        }
+    }
+
+    void clear() {
+        synchronized (map) {
+            map.clear();
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /** 命中率 0..1，无请求时为 0 */
+    double hitRate() {
+        long h = hits.sum(), m = misses.sum();
+        return h + m == 0 ? 0 : h / (double) (h + m);
+    }
+}
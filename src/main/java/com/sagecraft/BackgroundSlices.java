@@ -0,0 +1,71 @@
+package com.sagecraft;
+
+import com.sagecraft.BubbleSettings.SliceSet;
+import me.clip.placeholderapi.PlaceholderAPI;
+import net.kyori.adventure.text.Component;
+import org.bukkit.entity.Player;
+
+/**
+ * 三段式背景与 tail 行的拼接（IA 字形查 {@link GlyphIndex}，索引为空时退回 PlaceholderAPI）
+ *
+ * 纯函数，不依赖管理器状态；成品由 {@link BackgroundCache} 缓存，基准模块直接调用。
+ */
+final class BackgroundSlices {
+
+    private BackgroundSlices() {
+    }
+
+    /** 背景宽度 innerPx 需要的 mid 重复次数 */
+    static int repeatFor(int innerPx, SliceSet s) {
+        int avail = Math.max(0, innerPx - s.leftPx - s.rightPx);
+        return Math.max(1, (int) Math.ceil(avail / (double) s.midPx));
+    }
+
+    /** 背景行 + tail 行成品 */
+    static BackgroundCache.Entry build(GlyphIndex index, Player p, int rep, SliceSet s, int trimPerSide) {
+        return new BackgroundCache.Entry(
+            Component.text(threeSlice(index, p, rep, s)),
+            Component.text(tailLineMidBothSides(index, p, rep, s, trimPerSide))
+        );
+    }
+
+    /** 背景：Left + Mid*repeat + Right（严格按像素凑满，不重叠） */
+    static String threeSlice(GlyphIndex index, Player p, int rep, SliceSet s) {
+        String L = glyph(index, p, s.left), M = glyph(index, p, s.mid), R = glyph(index, p, s.right);
+        return L + M.repeat(rep) + R;
+    }
+
+    /** tail 行：mid*左 + tail + mid*右 —— 仅在 tail 两侧裁掉若干 mid，不改背景宽度 */
+    static String tailLineMidBothSides(GlyphIndex index, Player p, int rep, SliceSet s, int trimPerSide) {
+        int tailTiles = Math.max(1, Math.round((float) s.tailPx / (float) s.midPx));
+        int rim = Math.max(0, rep - tailTiles);
+        int left  = rim / 2;
+        int right = rim - left;
+
+        int wantTrimTotal = Math.max(0, trimPerSide) * 2;
+        int doTrimTotal   = Math.min(rim, wantTrimTotal);
+        int trimL = doTrimTotal / 2;
+        int trimR = doTrimTotal - trimL;
+        left  = Math.max(0, left  - trimL);
+        right = Math.max(0, right - trimR);
+
+        String M = glyph(index, p, s.mid), T = glyph(index, p, s.tail);
+        return M.repeat(left) + T + M.repeat(right);
+    }
+
+    /** IA 字形解析：支持 "img_xxx" / "%img_xxx%" / "ns:id" / 直接 "xxx" */
+    static String glyph(GlyphIndex index, Player p, String token) {
+        if (token == null || token.isEmpty()) return "";
+        if (index.ready()) {
+            String g = index.lookup(token);
+            return g == null ? "" : g;
+        }
+        String holder;
+        if (token.startsWith("%")) holder = token;
+        else if (token.startsWith("img_")) holder = "%" + token + "%";
+        else if (token.contains(":")) holder = "%img_" + token.replace(':', '_') + "%";
+        else holder = "%img_" + token + "%";
+        String uni = PlaceholderAPI.setPlaceholders(p, holder);
+        return (uni == null || uni.equals(holder)) ? "" : uni;
+    }
+}
@@ -0,0 +1,105 @@
+package com.sagecraft;
+
+import com.github.retrooper.packetevents.protocol.player.User;
+import net.kyori.adventure.text.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个存活中的气泡：三层实体 + 生命周期状态机
+ * ENTER → HOLD → EXIT → DEAD，由所在分区的 {@link BubbleScheduler} 统一驱动；
+ * 除标注 volatile 的字段外只由驱动该分区的线程读写
+ */
+final class Bubble {
+
+    /** 生命周期状态 */
+    enum State { ENTER, HOLD, EXIT, DEAD }
+
+    /** 按距离的细节层级：FULL 完整动画，STATIC 三层静态无动画帧，TEXT 只有一个单行文字实体 */
+    enum Lod { FULL, STATIC, TEXT }
+
+    final UUID owner;
+    /** 说话者的实体 id（气泡骑在它身上，也是追踪器里查可见性的 key） */
+    int speakerEntityId;
+    /** [bg, text, tail] */
+    final BubbleInfo[] infos;
+    /** 挂在谁身上（说话者 / API 锚点），每次显示时更新，刷新观察者时用 */
+    volatile BubbleAnchor anchor;
+    /** 所在分区；说话者跨分区时随整条链迁移 */
+    volatile BubbleRegion region;
+
+    /** 当前能看到该气泡的玩家（生成时计算一次，之后随移动增量刷新） */
+    Map<UUID, User> viewers = new HashMap<>();
+    /** 观察者中不是 FULL 的层级；没有记录即 FULL（未启用 LOD 时一直为空） */
+    Map<UUID, Lod> lods = new HashMap<>();
+    /**
+     * 客户端上已经有本气泡实体的观察者：生成包排进批次后加入（工作线程或分区线程），销毁时移除。
+     * 显示新消息时按它区分换字与新生成，不随新一轮显示清空
+     */
+    final Set<UUID> shown = ConcurrentHashMap.newKeySet();
+    /** TEXT 层级显示的单行文本 */
+    Component farText;
+    /** 生成时的可视范围与本地 Y 偏移，刷新观察者时复用 */
+    double viewRange;
+    float yOffset;
+    /** 气泡高度（方块），堆叠时计算上方气泡的偏移 */
+    float height;
+    /** stack 策略下同一说话者的气泡链：newer 在下方，older 被推到上方 */
+    Bubble newer, older;
+
+    /** 分区线程写；工作线程发完包后会读一次，判断气泡是否已被清掉 */
+    volatile State state = State.DEAD;
+    /** 当前状态内已经走过的 tick 数 */
+    int stateTick;
+    int enterTicks;
+    int holdTicks;
+    int exitTicks;
+    /** 入场起始缩放：正常入场为很小的值，原地更新时为弹跳缩放 */
+    float enterFrom;
+    /** 本轮动画开始的 tick，出站预算不够时新气泡优先 */
+    long startedAt;
+    /** 入场 / 退场交给客户端插值（每段只发一个包），否则逐 tick 发送 */
+    boolean interpolated;
+    /** 本轮的发包任务已排进出站批次；入场动画等它就位后才开始 */
+    volatile boolean spawned;
+    /** 每次显示（showBubble）加一；发包任务据此判断自己是否已被新一轮取代 */
+    volatile int generation;
+    /** 等待生成包的 tick 数 */
+    int spawnWait;
+
+    // ---- 时间轮侵入式链表字段，仅由 BubbleScheduler 读写 ----
+    long deadline;
+    int wheelSlot = -1;
+    Bubble wheelPrev, wheelNext;
+
+    Bubble(UUID owner, BubbleInfo[] infos, BubbleRegion region) {
+        this.owner = owner;
+        this.infos = infos;
+        this.region = region;
+    }
+
+    /** 重新进入 ENTER 状态（新消息复用同一个气泡） */
+    void restart(int enterTicks, int holdTicks, int exitTicks) {
+        this.state = State.ENTER;
+        this.stateTick = 0;
+        this.enterTicks = enterTicks;
+        this.holdTicks = holdTicks;
+        this.exitTicks = exitTicks;
+        this.spawned = false;
+        this.spawnWait = 0;
+    }
+
+    /** 切换状态并清零状态内计数 */
+    void enter(State next) {
+        this.state = next;
+        this.stateTick = 0;
+    }
+
+    boolean isScheduled() {
+        return wheelSlot >= 0;
+    }
+}
@@ -0,0 +1,93 @@
+package com.sagecraft;
+
+import io.github.retrooper.packetevents.util.SpigotConversionUtil;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 气泡挂在哪里：说话的玩家、其他插件的实体（NPC、展示实体）、只有实体 id 的发包实体，或一个固定位置
+ *
+ * key 决定"同一个锚点"：同一锚点的新气泡原地替换旧气泡。
+ * 有实体 id 的锚点用 passenger 跟随，固定位置的气泡就停在原地。
+ */
+final class BubbleAnchor {
+
+    /** 同一锚点的气泡链 key（玩家 / 实体为其 UUID） */
+    final UUID key;
+    /** 气泡骑乘的实体 id；-1 表示固定位置 */
+    final int entityId;
+    /** 服务器上的实体；只有实体 id 或固定位置时为 null */
+    final Entity entity;
+    /** 实体是玩家类型（含 Citizens 的玩家 NPC）：客户端上是否存在它由追踪器记录 */
+    final boolean tracked;
+    private final Location fixed;
+    /** 构建锚点时读好的名字：排版在工作线程上做，不能再去读实体 */
+    private final String name;
+
+    static final int[] NO_RIDERS = new int[0];
+
+    private BubbleAnchor(UUID key, int entityId, Entity entity, Location fixed) {
+        this.key = key;
+        this.entityId = entityId;
+        this.entity = entity;
+        this.fixed = fixed;
+        this.tracked = entity != null && entity.getType() == EntityType.PLAYER;
+        this.name = entity != null ? entity.getName() : key.toString();
+    }
+
+    static BubbleAnchor of(Entity entity) {
+        return new BubbleAnchor(entity.getUniqueId(), entity.getEntityId(), entity, null);
+    }
+
+    /** 只有实体 id 的发包实体：at 为其头顶位置，由调用方在每次提交时给出 */
+    static BubbleAnchor of(int entityId, Location at) {
+        UUID key = UUID.nameUUIDFromBytes(("chatbubble:entity:" + entityId).getBytes(StandardCharsets.UTF_8));
+        return new BubbleAnchor(key, entityId, null, at.clone());
+    }
+
+    static BubbleAnchor at(UUID key, Location at) {
+        return new BubbleAnchor(key, -1, null, at.clone());
+    }
+
+    /** 玩家在线 / 实体仍然存在 */
+    boolean valid() {
+        if (entity == null) return true;
+        return entity instanceof Player p ? p.isOnline() : entity.isValid();
+    }
+
+    Location location() {
+        return entity != null ? entity.getLocation() : fixed.clone();
+    }
+
+    /** 气泡生成点：玩家头顶（蹲下时略低）、实体碰撞箱顶部上方，固定位置原样 */
+    com.github.retrooper.packetevents.protocol.world.Location head() {
+        Location at;
+        if (entity instanceof Player p) at = p.getLocation().add(0, p.isSneaking() ? 1.6 : 1.9, 0);
+        else if (entity != null) at = entity.getLocation().add(0, entity.getHeight() + 0.1, 0);
+        else at = fixed.clone();
+        return SpigotConversionUtil.fromBukkitLocation(at);
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * 服务器上骑在锚点实体上的乘客（实体所属线程调用）：气泡的 SET_PASSENGERS 要带上它们，
+     * 否则会把客户端上的真实乘客踢下来
+     */
+    int[] riders() {
+        if (entity == null) return NO_RIDERS;
+        List<Entity> passengers = entity.getPassengers();
+        if (passengers.isEmpty()) return NO_RIDERS;
+        int[] ids = new int[passengers.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = passengers.get(i).getEntityId();
+        return ids;
+    }
+}
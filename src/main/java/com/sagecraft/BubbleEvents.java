@@ -0,0 +1,79 @@
+package com.sagecraft;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder 自定义事件
+ *
+ * 没有开启录制时 begin/commit 基本是空操作；用
+ * {@code jcmd <pid> JFR.start settings=profile} 录制后在 JMC 的 "ChatBubble" 分类下查看，
+ * 可以和 GC、线程、网络事件放在同一条时间线上对照。
+ */
+final class BubbleEvents {
+
+    private BubbleEvents() {
+    }
+
+    @Name("com.sagecraft.chatbubble.Layout")
+    @Label("Bubble Layout")
+    @Category("ChatBubble")
+    @Description("工作线程：换行排版 + PlaceholderAPI/MiniMessage + 背景查表")
+    @StackTrace(false)
+    static final class Layout extends Event {
+        @Label("Speaker")
+        String speaker;
+        @Label("Characters")
+        int chars;
+        @Label("Lines")
+        int lines;
+        @Label("PlaceholderAPI + MiniMessage")
+        @Timespan(Timespan.NANOSECONDS)
+        long renderNanos;
+    }
+
+    @Name("com.sagecraft.chatbubble.Show")
+    @Label("Bubble Show")
+    @Category("ChatBubble")
+    @Description("说话者所在线程（Paper 主线程 / Folia 区域线程）：读取说话者状态、计算观察者、登记动画")
+    @StackTrace(false)
+    static final class Show extends Event {
+        @Label("Speaker")
+        String speaker;
+        @Label("In Place")
+        boolean inPlace;
+        @Label("Known Viewers")
+        int known;
+        @Label("Fresh Viewers")
+        int fresh;
+    }
+
+    @Name("com.sagecraft.chatbubble.Emit")
+    @Label("Bubble Emit")
+    @Category("ChatBubble")
+    @Description("工作线程：编码生成 / 换字 / passenger 包并排进出站批次")
+    @StackTrace(false)
+    static final class Emit extends Event {
+        @Label("Speaker")
+        String speaker;
+        @Label("Viewers")
+        int viewers;
+    }
+
+    @Name("com.sagecraft.chatbubble.Tick")
+    @Label("Bubble Tick")
+    @Category("ChatBubble")
+    @Description("分区驱动任务（Paper 主线程 / Folia 区域线程）：推进到期气泡、处理消息队列、写出出站批次")
+    @StackTrace(false)
+    static final class Tick extends Event {
+        @Label("Steps")
+        int steps;
+        @Label("Scheduled Bubbles")
+        int scheduled;
+    }
+}
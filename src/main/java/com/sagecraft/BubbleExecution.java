@@ -0,0 +1,63 @@
+package com.sagecraft;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+import java.util.Collection;
+
+/**
+ * 执行后端：气泡状态放在哪个分区、分区由谁驱动、说话者相关的工作在哪个线程上执行
+ *
+ * {@link PaperExecution}（默认）只有一个全局分区，全部在主线程上；
+ * {@link FoliaExecution} 按区段分区，每个分区由拥有该区段的区域线程驱动。
+ */
+interface BubbleExecution {
+
+    /** 分区工厂：由管理器提供步进与 tick 末尾回调 */
+    interface RegionFactory {
+        BubbleRegion create(BubbleRegion.Section section, World world, int anchorChunkX, int anchorChunkZ);
+    }
+
+    /** 启动驱动任务 */
+    void start();
+
+    /** 停止所有驱动任务 */
+    void stop();
+
+    /** 位置所属的分区（不存在时创建并开始驱动） */
+    BubbleRegion regionFor(Location at);
+
+    /** 当前存在的所有分区 */
+    Collection<BubbleRegion> regions();
+
+    /** 在拥有该说话者的线程上执行（下一 tick） */
+    void runFor(Entity speaker, Runnable task);
+
+    /** 当前线程是否就是驱动该分区的线程 */
+    boolean owns(BubbleRegion region);
+
+    /** 消息队列所用的全局 tick 计数 */
+    long now();
+
+    /** 后端名，统计展示用 */
+    String name();
+
+    /** 当前线程拥有分区时直接执行，否则投递到分区 */
+    default void execute(BubbleRegion region, Runnable task) {
+        if (owns(region)) task.run();
+        else region.post(task);
+    }
+
+    /** 按 bubble.execution 选择后端：auto 时检测 Folia */
+    static boolean foliaRequested(String mode) {
+        if ("folia".equalsIgnoreCase(mode)) return true;
+        if ("paper".equalsIgnoreCase(mode)) return false;
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
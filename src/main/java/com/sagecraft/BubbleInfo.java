@@ -0,0 +1,19 @@
+package com.sagecraft;
+
+import net.kyori.adventure.text.Component;
+
+import java.util.UUID;
+
+/**
+ * 单个气泡实体信息（bg / text / tail 之一）
+ */
+final class BubbleInfo {
+    final int entityId;
+    final UUID entityUuid;
+    Component textContent;
+
+    BubbleInfo(int entityId, UUID entityUuid) {
+        this.entityId = entityId;
+        this.entityUuid = entityUuid;
+    }
+}
@@ -0,0 +1,167 @@
+package com.sagecraft;
+
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 插件自身开销的计数器与耗时直方图，供 /cb stats 展示
+ *
+ * 全部基于 LongAdder，聊天线程、工作线程、主线程、netty 线程都可以无锁写入；
+ * 直方图按 2 的幂分桶（纳秒），百分位给出所在桶的上界。
+ */
+final class BubbleMetrics {
+
+    /** 按 2 的幂分桶的耗时直方图 */
+    static final class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            long n = Math.max(1, nanos);
+            buckets[Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(n))].increment();
+            total.add(n);
+            max.accumulate(n);
+        }
+
+        long count() {
+            long c = 0;
+            for (LongAdder b : buckets) c += b.sum();
+            return c;
+        }
+
+        /** 百分位所在桶的上界（纳秒） */
+        long percentile(double p) {
+            long[] counts = new long[BUCKETS];
+            long c = 0;
+            for (int i = 0; i < BUCKETS; i++) c += counts[i] = buckets[i].sum();
+            if (c == 0) return 0;
+            long rank = (long) Math.ceil(c * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return 1L << (i + 1);
+            }
+            return max.get();
+        }
+
+        String describe() {
+            long c = count();
+            if (c == 0) return "n=0";
+            return "n=" + c
+                + " avg=" + micros(total.sum() / (double) c)
+                + " p50≤" + micros(percentile(0.50))
+                + " p99≤" + micros(percentile(0.99))
+                + " max=" + micros(max.get());
+        }
+
+        void reset() {
+            for (LongAdder b : buckets) b.reset();
+            total.reset();
+            max.reset();
+        }
+    }
+
+    // 消息：收到 / 合并后实际排版 / 原地更新
+    final LongAdder messagesReceived = new LongAdder();
+    final LongAdder messagesProcessed = new LongAdder();
+    final LongAdder inPlaceUpdates = new LongAdder();
+    // 经 BubbleService 提交的请求
+    final LongAdder apiRequests = new LongAdder();
+    // 各阶段耗时
+    final Histogram layout = new Histogram();
+    final Histogram render = new Histogram();
+    final Histogram show = new Histogram();
+    final Histogram emit = new Histogram();
+    final Histogram tick = new Histogram();
+    // 驱动任务累计推进的气泡次数（除以 tick 数即每 tick 工作量）
+    final LongAdder steps = new LongAdder();
+    // 说话者跨分区时整条气泡链的迁移次数（仅 Folia 后端）
+    final LongAdder migrations = new LongAdder();
+    // 工作队列满、新工作推迟到下一 tick 的次数
+    final LongAdder workerDeferred = new LongAdder();
+    // 出站：被预算 / 背压丢掉的中间帧
+    final LongAdder framesDropped = new LongAdder();
+
+    /** 包类型 -> [包数, 字节数] */
+    private final Map<String, LongAdder[]> packets = new ConcurrentHashMap<>();
+
+    void packetSent(String type, int bytes) {
+        LongAdder[] c = packets.computeIfAbsent(type, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+        c[0].increment();
+        c[1].add(bytes);
+    }
+
+    /** WrapperPlayServerEntityMetadata -> EntityMetadata */
+    static String typeName(PacketWrapper<?> packet) {
+        String n = packet.getClass().getSimpleName();
+        return n.startsWith("WrapperPlayServer") ? n.substring("WrapperPlayServer".length()) : n;
+    }
+
+    /** 文本报告（不含需要在主线程读取的实时数量） */
+    List<String> report() {
+        List<String> out = new ArrayList<>();
+        out.add("消息: 收到 " + messagesReceived.sum() + " / 处理 " + messagesProcessed.sum()
+                + " / 原地更新 " + inPlaceUpdates.sum() + " / API 请求 " + apiRequests.sum());
+        out.add("排版: " + layout.describe());
+        out.add("PAPI+MiniMessage: " + render.describe());
+        out.add("主线程登记: " + show.describe());
+        out.add("发包(工作线程): " + emit.describe() + "，队列满推迟 " + workerDeferred.sum() + " 次");
+        long ticks = tick.count();
+        out.add("驱动 tick: " + tick.describe()
+                + String.format(" 平均每 tick 推进 %.2f", ticks == 0 ? 0.0 : steps.sum() / (double) ticks)
+                + "，跨分区迁移 " + migrations.sum());
+        long totalPackets = 0, totalBytes = 0;
+        List<String> byType = new ArrayList<>();
+        for (Map.Entry<String, LongAdder[]> e : new TreeMap<>(packets).entrySet()) {
+            long n = e.getValue()[0].sum(), b = e.getValue()[1].sum();
+            totalPackets += n;
+            totalBytes += b;
+            byType.add("  " + e.getKey() + ": " + n + " 包 / " + bytes(b));
+        }
+        out.add("出站: " + totalPackets + " 包 / " + bytes(totalBytes) + "，丢弃中间帧 " + framesDropped.sum());
+        out.addAll(byType);
+        return out;
+    }
+
+    void reset() {
+        messagesReceived.reset();
+        messagesProcessed.reset();
+        inPlaceUpdates.reset();
+        apiRequests.reset();
+        layout.reset();
+        render.reset();
+        show.reset();
+        emit.reset();
+        tick.reset();
+        steps.reset();
+        migrations.reset();
+        workerDeferred.reset();
+        framesDropped.reset();
+        packets.clear();
+    }
+
+    private static String micros(double nanos) {
+        double us = nanos / 1000.0;
+        return us >= 1000 ? String.format("%.2fms", us / 1000.0) : String.format("%.1fµs", us);
+    }
+
+    private static String bytes(long b) {
+        if (b >= 1 << 20) return String.format("%.2fMiB", b / (double) (1 << 20));
+        if (b >= 1 << 10) return String.format("%.1fKiB", b / 1024.0);
+        return b + "B";
+    }
+}
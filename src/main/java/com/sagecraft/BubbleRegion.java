@@ -0,0 +1,155 @@
+package com.sagecraft;
+
+import org.bukkit.World;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * 气泡状态的一个分区：自己的时间轮、出站批次、元数据账本和跨线程投递队列
+ *
+ * 分区内的气泡只由驱动它的那个线程读写（Paper 为主线程，Folia 为拥有该区段的区域线程），
+ * 分区之间不共享锁。其他线程要动分区里的气泡时经 {@link #post} 投递，分区在下一 tick 开头执行；
+ * 说话者跨分区时整条气泡链由旧分区摘出、投递给新分区接管。
+ */
+final class BubbleRegion implements Runnable {
+
+    /** Folia 区段坐标：同一区段内的区块总是属于同一个区域 */
+    static final class Section {
+        final UUID world;
+        final int x, z;
+
+        Section(UUID world, int x, int z) {
+            this.world = world;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Section s && s.x == x && s.z == z && s.world.equals(world);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * world.hashCode() + x) * 31 + z;
+        }
+
+        @Override
+        public String toString() {
+            return world + "@" + x + "," + z;
+        }
+    }
+
+    /** 分区所在区段；null 表示 Paper 下唯一的全局分区 */
+    private final JavaPlugin P;
+    final Section section;
+    /** 区段所在世界与锚点区块（调度区域任务用） */
+    final World world;
+    final int anchorChunkX, anchorChunkZ;
+
+    final BubbleScheduler wheel;
+    final OutboundBatch outbound;
+    final MetadataLedger ledger;
+
+    /** 投递的任务，参数为实际执行它的分区 */
+    private final Queue<Consumer<BubbleRegion>> inbox = new ConcurrentLinkedQueue<>();
+    /** 已停止驱动；之后投递的任务改投给接替的分区 */
+    private volatile boolean retired;
+    private volatile Consumer<Consumer<BubbleRegion>> successor;
+    /** 连续空闲的 tick 数 */
+    private int idleTicks;
+    /** 本分区销毁、等销毁包写出后才能回收的实体 id（只由分区线程读写） */
+    private final List<BubbleInfo[]> released = new ArrayList<>();
+
+    BubbleRegion(JavaPlugin plugin, Section section, World world, int anchorChunkX, int anchorChunkZ,
+                 BubbleScheduler.Stepper stepper, Consumer<BubbleRegion> afterTick, BubbleMetrics metrics,
+                 ViewerGrid grid, int triggerIndex) {
+        this.P = plugin;
+        this.section = section;
+        this.world = world;
+        this.anchorChunkX = anchorChunkX;
+        this.anchorChunkZ = anchorChunkZ;
+        this.wheel = new BubbleScheduler(plugin, stepper, () -> afterTick.accept(this), metrics);
+        this.outbound = new OutboundBatch(metrics, grid);
+        this.ledger = new MetadataLedger(triggerIndex);
+    }
+
+    boolean isGlobal() {
+        return section == null;
+    }
+
+    /** 投递到分区线程，下一 tick 开头执行（任意线程） */
+    void post(Runnable task) {
+        handOff(r -> task.run());
+    }
+
+    /**
+     * 同 {@link #post}，但任务拿到实际执行它的分区：本分区已回收时是接替它的分区。
+     * 迁移气泡链时用它确定气泡最终挂在哪个时间轮上
+     */
+    void handOff(Consumer<BubbleRegion> task) {
+        inbox.add(task);
+        // 与 retire 竞争：谁从队列里拿走它谁负责转投，保证只执行一次
+        if (retired && inbox.remove(task)) successor.accept(task);
+    }
+
+    /** 每 tick：先执行投递的任务，再推进时间轮（其 afterTick 写出本分区的出站批次） */
+    @Override
+    public void run() {
+        for (int n = inbox.size(); n > 0; n--) {
+            Consumer<BubbleRegion> task = inbox.poll();
+            if (task == null) break;
+            try {
+                task.accept(this);
+            } catch (Throwable t) {
+                P.getLogger().warning("气泡分区任务失败: " + t.getMessage());
+            }
+        }
+        wheel.run();
+    }
+
+    /**
+     * 气泡结束：实体 id 等本分区的出站批次写出（销毁包已进连接）之后才交还回收池，
+     * 否则别的分区可能先复用这些 id 并写出生成包，随后到达的销毁包会把新实体删掉
+     */
+    void releaseAfterFlush(BubbleInfo[] infos) {
+        released.add(infos);
+    }
+
+    /** 出站批次写出后调用：把本 tick 结束的 id 交给 sink */
+    void flushReleased(Consumer<BubbleInfo[]> sink) {
+        if (released.isEmpty()) return;
+        for (BubbleInfo[] infos : released) sink.accept(infos);
+        released.clear();
+    }
+
+    /**
+     * 空闲判定：时间轮、投递队列与出站批次都为空且持续 ticks 个 tick
+     * （分区线程调用，每 tick 一次）
+     */
+    boolean idleFor(int ticks) {
+        if (wheel.size() > 0 || !inbox.isEmpty() || !outbound.isEmpty()) {
+            idleTicks = 0;
+            return false;
+        }
+        return ++idleTicks >= ticks;
+    }
+
+    /** 停止接收任务：已排队和之后投递的都交给 successor（通常是重新取到的同区段分区） */
+    void retire(Consumer<Consumer<BubbleRegion>> successor) {
+        this.successor = successor;
+        this.retired = true;
+        Consumer<BubbleRegion> task;
+        while ((task = inbox.poll()) != null) successor.accept(task);
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+}
@@ -0,0 +1,83 @@
+package com.sagecraft;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * 一次气泡显示请求：锚点 + 文本组件 + 存活时长 + 外观
+ *
+ * <pre>
+ * BubbleRequest.entity(npc).text(line).lifetimeTicks(80).build()
+ * </pre>
+ *
+ * 不可变；构建可以在任意线程完成，提交见 {@link BubbleService}。
+ */
+public final class BubbleRequest {
+
+    final BubbleAnchor anchor;
+    final Component text;
+    /** <= 0 表示沿用 config 的 lifetime-ticks */
+    final int lifetimeTicks;
+    final BubbleStyle style;
+
+    private BubbleRequest(Builder b) {
+        this.anchor = b.anchor;
+        this.text = b.text;
+        this.lifetimeTicks = b.lifetimeTicks;
+        this.style = b.style;
+    }
+
+    /** 挂在服务器上的实体上（Citizens NPC、展示实体、盔甲架……），随实体移动 */
+    public static Builder entity(Entity entity) {
+        return new Builder(BubbleAnchor.of(Objects.requireNonNull(entity, "entity")));
+    }
+
+    /** 挂在只存在于客户端的发包实体上；at 为其头顶位置，用于计算观察者与生成点 */
+    public static Builder entity(int entityId, Location at) {
+        return new Builder(BubbleAnchor.of(entityId, Objects.requireNonNull(at, "at")));
+    }
+
+    /** 固定位置；key 相同的请求原地替换同一个气泡 */
+    public static Builder location(UUID key, Location at) {
+        return new Builder(BubbleAnchor.at(Objects.requireNonNull(key, "key"), Objects.requireNonNull(at, "at")));
+    }
+
+    /** 锚点的 key：实体为其 UUID，发包实体由 id 派生，固定位置为调用方给的 key */
+    public UUID key() {
+        return anchor.key;
+    }
+
+    public static final class Builder {
+        private final BubbleAnchor anchor;
+        private Component text = Component.empty();
+        private int lifetimeTicks;
+        private BubbleStyle style = BubbleStyle.DEFAULT;
+
+        private Builder(BubbleAnchor anchor) {
+            this.anchor = anchor;
+        }
+
+        public Builder text(Component text) {
+            this.text = Objects.requireNonNull(text, "text");
+            return this;
+        }
+
+        public Builder lifetimeTicks(int ticks) {
+            this.lifetimeTicks = ticks;
+            return this;
+        }
+
+        public Builder style(BubbleStyle style) {
+            this.style = Objects.requireNonNull(style, "style");
+            return this;
+        }
+
+        public BubbleRequest build() {
+            return new BubbleRequest(this);
+        }
+    }
+}
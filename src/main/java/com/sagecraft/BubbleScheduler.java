@@ -0,0 +1,142 @@
+package com.sagecraft;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+/**
+ * 一个分区的气泡驱动时间轮
+ *
+ * 分区内所有气泡共享一个每 tick 执行的任务（由 {@link BubbleExecution} 驱动，见 {@link BubbleRegion}），
+ * 内部用哈希时间轮按 deadline 组织：
+ * 每 tick 只处理当前槽位里到期的气泡，处于 HOLD 的气泡在到期前不产生任何开销。
+ * 链表是侵入式的（字段直接挂在 {@link Bubble} 上），调度/取消都是 O(1) 且不分配对象。
+ */
+final class BubbleScheduler implements Runnable {
+
+    /** 单步回调：返回距离下次唤醒的 tick 数，<= 0 表示不再调度 */
+    interface Stepper {
+        int step(Bubble bubble, long now);
+    }
+
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    /** 额外的一个槽位，存放本 tick 正在处理的到期气泡 */
+    private static final int DUE_SLOT = WHEEL_SIZE;
+
+    private final JavaPlugin P;
+    private final Stepper stepper;
+    /** 每 tick 推进完所有气泡后执行（写出本 tick 的出站批次） */
+    private final Runnable afterTick;
+    private final BubbleMetrics metrics;
+    private final Bubble[] heads = new Bubble[WHEEL_SIZE + 1];
+
+    private long now;
+    private int scheduled;
+
+    BubbleScheduler(JavaPlugin plugin, Stepper stepper, Runnable afterTick, BubbleMetrics metrics) {
+        this.P = plugin;
+        this.stepper = stepper;
+        this.afterTick = afterTick;
+        this.metrics = metrics;
+    }
+
+    /** 在 delay tick 之后唤醒气泡；已在轮中的会先被摘除 */
+    void schedule(Bubble b, int delay) {
+        unlink(b);
+        b.deadline = now + Math.max(1, delay);
+        link(b);
+    }
+
+    /** 从时间轮中移除 */
+    void cancel(Bubble b) {
+        unlink(b);
+    }
+
+    /** 当前 tick 计数 */
+    long now() {
+        return now;
+    }
+
+    /** 遍历轮中所有气泡（含本 tick 的到期槽；驱动该分区的线程调用） */
+    void forEach(java.util.function.Consumer<Bubble> action) {
+        for (Bubble head : heads) {
+            for (Bubble b = head; b != null; b = b.wheelNext) action.accept(b);
+        }
+    }
+
+    /** 当前在轮中的气泡数量 */
+    int size() {
+        return scheduled;
+    }
+
+    @Override
+    public void run() {
+        final long started = System.nanoTime();
+        final BubbleEvents.Tick event = new BubbleEvents.Tick();
+        event.begin();
+        final long tick = ++now;
+        int steps = 0;
+        final int slot = (int) (tick & WHEEL_MASK);
+
+        // 先整条挪到"到期"槽，回调里重新调度到同一槽位也不会被本轮再次遍历；
+        // 回调中被取消的气泡会从到期槽里摘掉，不会被误执行
+        Bubble b = heads[slot];
+        heads[slot] = null;
+        for (Bubble x = b; x != null; x = x.wheelNext) x.wheelSlot = DUE_SLOT;
+        heads[DUE_SLOT] = b;
+
+        while ((b = heads[DUE_SLOT]) != null) {
+            unlink(b);
+            if (b.deadline > tick) {
+                // 还没到期（超过一圈），放回去等下一圈
+                link(b);
+                continue;
+            }
+            int delay;
+            steps++;
+            try {
+                delay = stepper.step(b, tick);
+            } catch (Throwable t) {
+                P.getLogger().warning("气泡动画步进失败: " + t.getMessage());
+                delay = 0;
+            }
+            if (delay > 0 && !b.isScheduled()) schedule(b, delay);
+        }
+
+        try {
+            afterTick.run();
+        } catch (Throwable t) {
+            P.getLogger().warning("气泡出站批次写出失败: " + t.getMessage());
+        }
+
+        metrics.steps.add(steps);
+        metrics.tick.record(System.nanoTime() - started);
+        event.end();
+        if (event.shouldCommit()) {
+            event.steps = steps;
+            event.scheduled = scheduled;
+            event.commit();
+        }
+    }
+
+    private void link(Bubble b) {
+        int slot = (int) (b.deadline & WHEEL_MASK);
+        Bubble head = heads[slot];
+        b.wheelPrev = null;
+        b.wheelNext = head;
+        if (head != null) head.wheelPrev = b;
+        heads[slot] = b;
+        b.wheelSlot = slot;
+        scheduled++;
+    }
+
+    private void unlink(Bubble b) {
+        if (b.wheelSlot < 0) return;
+        if (b.wheelPrev != null) b.wheelPrev.wheelNext = b.wheelNext;
+        else heads[b.wheelSlot] = b.wheelNext;
+        if (b.wheelNext != null) b.wheelNext.wheelPrev = b.wheelPrev;
+        b.wheelPrev = b.wheelNext = null;
+        b.wheelSlot = -1;
+        scheduled--;
+    }
+}
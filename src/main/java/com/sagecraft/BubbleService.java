@@ -0,0 +1,37 @@
+package com.sagecraft;
+
+import org.bukkit.entity.Entity;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * 给其他插件（任务、NPC 对话等）用的气泡接口，通过 Bukkit ServicesManager 获取：
+ *
+ * <pre>
+ * BubbleService bubbles = Bukkit.getServicesManager().load(BubbleService.class);
+ * bubbles.submitAll(requests);
+ * </pre>
+ *
+ * 所有方法都可以在任意线程调用，只是把请求放进无锁队列。驱动任务每 tick 取出一批，
+ * 在一个工作线程任务里统一排版，实体锚点回到实体所属线程、固定位置按分区各登记一次；
+ * 发包与聊天气泡共用同一个按观察者合批的出站批次。
+ * 同一锚点的新请求原地替换旧气泡（只发换字元数据），不会重新生成实体。
+ *
+ * 气泡以 passenger 挂在锚点实体上：插件发的乘客列表带上实体在服务器上原有的乘客，
+ * 服务器自己为该实体发的乘客列表（上下乘客时）在发出前补上气泡，两者互不挤掉。
+ */
+public interface BubbleService {
+
+    /** 提交一个气泡 */
+    void submit(BubbleRequest request);
+
+    /** 批量提交，例如"这一 tick 的 150 句 NPC 台词" */
+    void submitAll(Collection<BubbleRequest> requests);
+
+    /** 提前移除挂在该实体上的气泡 */
+    void clear(Entity entity);
+
+    /** 按锚点 key 提前移除气泡（见 {@link BubbleRequest#key()}） */
+    void clear(UUID key);
+}
@@ -0,0 +1,202 @@
+package com.sagecraft;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * config.yml 编译后的不可变快照
+ *
+ * 启用时和 /cb reload 时各编译一次，通过管理器里的一个 volatile 引用整体替换；
+ * 热路径只读这里的 final 字段，不再做字符串 key 查找。
+ */
+final class BubbleSettings {
+
+    /** 三段式集合 */
+    static final class SliceSet {
+        final int height;
+        final String left, mid, right, tail;
+        final int leftPx, midPx, rightPx, tailPx, paddingPx;
+
+        SliceSet(int height, String left, String mid, String right, String tail,
+                 int leftPx, int midPx, int rightPx, int tailPx, int paddingPx) {
+            this.height = height;
+            this.left = left;
+            this.mid = mid;
+            this.right = right;
+            this.tail = tail;
+            this.leftPx = leftPx;
+            this.midPx = midPx;
+            this.rightPx = rightPx;
+            this.tailPx = tailPx;
+            this.paddingPx = paddingPx;
+        }
+    }
+
+    /** 预先按行数建好的套件表上限；超过的行数与最后一项相同 */
+    private static final int MAX_TABLE_LINES = 32;
+
+    final boolean enabled;
+    final float yOffset;
+    final int innerPx;
+    final boolean autoWrap;
+    final int maxLines;
+    final String ellipsis;
+    final int fontPx;
+    final int lifetimeTicks;
+    /** 退场动画 tick 数 */
+    final int fadeoutTicks;
+    /** animation-mode: interpolated（客户端插值）/ stepped（服务器逐 tick） */
+    final boolean interpolatedAnimation;
+    /** 气泡还在时来新消息：原地换字后是否做一次弹跳 */
+    final boolean updatePulse;
+    final double viewRange;
+    final boolean showShadow;
+    final String miniMessage;
+    final boolean usePapiForText;
+    /** 组件聊天消息是否保留其他聊天插件加上的格式 */
+    final boolean keepChatFormat;
+    final int tailTrimPerSide;
+    final int maxHeight;
+    final int backgroundCacheSize;
+    /** 排版/发包工作线程数与排队任务上限（仅启用时读取） */
+    final int workerThreads;
+    final int workerQueue;
+    /** 执行后端 auto / paper / folia 与 Folia 区段指数（仅启用时读取） */
+    final String execution;
+    final int regionShift;
+    /** 调试追踪环形缓冲区条数（仅启用时读取） */
+    final int traceSize;
+    /** 连发处理：replace / stack / merge，stack 时最多叠几个 */
+    final SpeakerQueue.Policy queuePolicy;
+    final int stackSize;
+    /** 每个说话者的令牌桶：每秒补充的更新次数与桶容量 */
+    final double ratePerSecond;
+    final int rateBurst;
+    /** 每个观察者每 tick 的出站预算（只约束可丢弃的中间动画帧） */
+    final int viewerBudgetPackets;
+    final int viewerBudgetBytes;
+    /** 每 tick 最多处理的 API 气泡请求，其余留到下一 tick */
+    final int apiMaxPerTick;
+    /** 按距离分级渲染：near / mid 为距离阈值（方块），farText 为 mid 以外是否显示单行文字 */
+    final boolean lodEnabled;
+    final double lodNear;
+    final double lodMid;
+    final boolean lodFarText;
+    /** 资源包字形宽度表 */
+    final GlyphWidths glyphs;
+    /** 按本快照参数构建的排版器 */
+    final TextLayout layout;
+    /** 预编译的 mini-message 模板与按行的组件缓存 */
+    final MessageTemplate template;
+
+    /** 行数 -> 三段式套件（下标 0 不用） */
+    private final SliceSet[] setsByLines;
+
+    private BubbleSettings(FileConfiguration c, GlyphWidths glyphs, GlyphIndex glyphIndex) {
+        this.enabled         = c.getBoolean("bubble.enabled", true);
+        this.yOffset         = (float) c.getDouble("bubble.y-offset", 0.55);
+        this.innerPx         = c.getInt("bubble.inner-px", 140);
+        this.autoWrap        = c.getBoolean("bubble.auto-wrap", true);
+        this.maxLines        = Math.max(1, c.getInt("bubble.max-lines", 3));
+        this.ellipsis        = c.getString("bubble.ellipsis", "...");
+        this.fontPx          = c.getInt("bubble.font-px", 6);
+        this.lifetimeTicks   = c.getInt("bubble.lifetime-ticks", 80);
+        this.fadeoutTicks    = c.getInt("bubble.fadeout-ticks", 4);
+        this.interpolatedAnimation = !"stepped".equalsIgnoreCase(c.getString("bubble.animation-mode", "interpolated"));
+        this.updatePulse     = c.getBoolean("bubble.update-pulse", true);
+        this.viewRange       = c.getDouble("bubble.view-range", 36);
+        this.showShadow      = c.getBoolean("bubble.show-shadow", false);
+        this.miniMessage     = c.getString("bubble.mini-message", "<white>%message%</white>");
+        this.usePapiForText  = c.getBoolean("bubble.use-papi-for-text", false);
+        this.keepChatFormat  = c.getBoolean("bubble.keep-chat-format", true);
+        this.tailTrimPerSide = Math.max(0, c.getInt("bubble.tail-trim-per-side", 0));
+        this.maxHeight       = c.getInt("bubble.max-height", Integer.MAX_VALUE);
+        this.backgroundCacheSize = c.getInt("bubble.background-cache-size", 512);
+        this.workerThreads   = c.getInt("bubble.worker-threads", 2);
+        this.workerQueue     = c.getInt("bubble.worker-queue", 1024);
+        this.execution       = c.getString("bubble.execution", "auto");
+        this.regionShift     = Math.max(0, c.getInt("bubble.region-shift", 4));
+        this.traceSize       = Math.max(64, c.getInt("bubble.trace-size", 8192));
+        this.queuePolicy     = SpeakerQueue.Policy.parse(c.getString("bubble.queue.policy", "replace"));
+        this.stackSize       = Math.max(1, c.getInt("bubble.queue.stack-size", 3));
+        this.ratePerSecond   = Math.max(0, c.getDouble("bubble.queue.rate-per-second", 2.0));
+        this.rateBurst       = Math.max(1, c.getInt("bubble.queue.burst", 3));
+        this.viewerBudgetPackets = Math.max(1, c.getInt("bubble.viewer-budget.packets", 48));
+        this.viewerBudgetBytes   = Math.max(256, c.getInt("bubble.viewer-budget.bytes", 8192));
+        this.apiMaxPerTick   = Math.max(1, c.getInt("bubble.api.max-per-tick", 512));
+        this.lodEnabled      = c.getBoolean("bubble.lod.enabled", true);
+        this.lodNear         = Math.max(0, c.getDouble("bubble.lod.near", 12));
+        this.lodMid          = Math.max(lodNear, c.getDouble("bubble.lod.mid", 24));
+        this.lodFarText      = !"none".equalsIgnoreCase(c.getString("bubble.lod.far-mode", "text"));
+        this.glyphs          = glyphs;
+        this.layout          = new TextLayout(glyphs, glyphIndex, innerPx, 1.0, maxLines, ellipsis, autoWrap);
+        this.template        = new MessageTemplate(miniMessage, usePapiForText, c.getInt("bubble.text-cache-size", 1024));
+
+        this.setsByLines = new SliceSet[MAX_TABLE_LINES + 1];
+        for (int lines = 1; lines <= MAX_TABLE_LINES; lines++) {
+            int h = pickHeight(c, lines);
+            SliceSet prev = setsByLines[lines - 1];
+            setsByLines[lines] = (prev != null && prev.height == h) ? prev : loadSet(c, h);
+        }
+    }
+
+    /** 从插件当前 config 编译一份快照（含资源包字宽表）；glyphIndex 由管理器持有，跨快照共享 */
+    static BubbleSettings compile(JavaPlugin plugin, GlyphIndex glyphIndex) {
+        FileConfiguration c = plugin.getConfig();
+        int fontPx = c.getInt("bubble.font-px", 6);
+        String pack = c.getString("bubble.resource-pack", "");
+        GlyphWidths glyphs = (pack == null || pack.isEmpty())
+                ? GlyphWidths.fallback(fontPx)
+                : GlyphWidths.load(resolvePack(plugin, pack), fontPx, plugin.getLogger());
+        return new BubbleSettings(c, glyphs, glyphIndex);
+    }
+
+    /** 资源包路径：绝对路径原样使用，相对路径相对于 plugins 目录 */
+    private static File resolvePack(JavaPlugin plugin, String path) {
+        File f = new File(path);
+        return f.isAbsolute() ? f : new File(plugin.getDataFolder().getParentFile(), path);
+    }
+
+    /** 按行数取三段式套件 */
+    SliceSet setForLines(int lines) {
+        return setsByLines[Math.max(1, Math.min(lines, MAX_TABLE_LINES))];
+    }
+
+    /** 所有用得到的三段式套件（去重，按行数顺序） */
+    List<SliceSet> distinctSets() {
+        List<SliceSet> out = new ArrayList<>(4);
+        for (int i = 1; i < setsByLines.length; i++) {
+            if (setsByLines[i] != setsByLines[i - 1]) out.add(setsByLines[i]);
+        }
+        return out;
+    }
+
+    /** 取最合适高度（1 行=13px，之后每多一行+10px；没有就往下找） */
+    private int pickHeight(FileConfiguration c, int lines) {
+        int h = 13 + (Math.max(1, lines) - 1) * 10;
+        h = Math.min(h, maxHeight);
+        while (h > 0 && !c.isConfigurationSection("bubble.sets." + h)) h -= 10;
+        return Math.max(h, 13);
+    }
+
+    /** 从 config 载入某高度的三段式贴图定义 */
+    private static SliceSet loadSet(FileConfiguration c, int h) {
+        String base = "bubble.sets." + h + ".";
+        return new SliceSet(
+            h,
+            c.getString(base + "left"),
+            c.getString(base + "mid"),
+            c.getString(base + "right"),
+            c.getString(base + "tail"),
+            c.getInt(base + "left_px", 3),
+            c.getInt(base + "mid_px", 5),
+            c.getInt(base + "right_px", 3),
+            c.getInt(base + "tail_px", 7),
+            c.getInt(base + "padding_px", 12)
+        );
+    }
+}
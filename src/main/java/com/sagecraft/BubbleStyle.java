@@ -0,0 +1,74 @@
+package com.sagecraft;
+
+/**
+ * API 气泡的外观参数；没有设置的项沿用 config.yml
+ *
+ * 不可变，可以在多个请求之间共享。
+ */
+public final class BubbleStyle {
+
+    /** 全部沿用配置 */
+    public static final BubbleStyle DEFAULT = builder().build();
+
+    final float yOffset;
+    final double viewRange;
+    final boolean template;
+    final boolean animated;
+
+    private BubbleStyle(Builder b) {
+        this.yOffset = b.yOffset;
+        this.viewRange = b.viewRange;
+        this.template = b.template;
+        this.animated = b.animated;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    float yOffset(BubbleSettings cfg) {
+        return Float.isNaN(yOffset) ? cfg.yOffset : yOffset;
+    }
+
+    double viewRange(BubbleSettings cfg) {
+        return Double.isNaN(viewRange) ? cfg.viewRange : viewRange;
+    }
+
+    public static final class Builder {
+        private float yOffset = Float.NaN;
+        private double viewRange = Double.NaN;
+        private boolean template = true;
+        private boolean animated = true;
+
+        private Builder() {
+        }
+
+        /** 气泡相对锚点的垂直偏移（方块） */
+        public Builder yOffset(float yOffset) {
+            this.yOffset = yOffset;
+            return this;
+        }
+
+        /** 可视范围（方块） */
+        public Builder viewRange(double viewRange) {
+            this.viewRange = viewRange;
+            return this;
+        }
+
+        /** 是否套用 config 里的 mini-message 模板；false 时组件原样显示 */
+        public Builder template(boolean template) {
+            this.template = template;
+            return this;
+        }
+
+        /** 是否播放入场缩放动画；false 时直接以完整大小出现 */
+        public Builder animated(boolean animated) {
+            this.animated = animated;
+            return this;
+        }
+
+        public BubbleStyle build() {
+            return new BubbleStyle(this);
+        }
+    }
+}
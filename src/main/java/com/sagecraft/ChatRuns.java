@@ -0,0 +1,181 @@
+package com.sagecraft;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.KeybindComponent;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.TranslatableComponent;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.format.TextDecoration;
+import net.kyori.adventure.translation.GlobalTranslator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 一条待排版的聊天消息：纯文本 + 按区间划分的样式段
+ *
+ * Paper 的 AsyncChatEvent 给的是已经装饰过的组件，这里只做一次深度优先遍历，
+ * 把每个节点的文本连同继承后的样式展开成段，排版器直接按段测量、断行，
+ * 再由 {@link #line} 按段拼回组件；全程不经过 序列化 / 去颜色码 / 转义 / MiniMessage 解析。
+ *
+ * 旧接口传进来的 String 消息包装成 {@link #plain} 的单段消息，仍走字符串排版与模板解析。
+ * 实例不可变，聊天线程构建后交给主线程与工作线程。
+ */
+final class ChatRuns {
+
+    private static final ChatRuns EMPTY = new ChatRuns("", new int[0], new Style[0], new boolean[0], true);
+
+    /** 所有段拼起来的文本 */
+    final String text;
+    /** 第 i 段在 text 中的结束下标（递增，最后一项等于 text.length()） */
+    final int[] ends;
+    /** 第 i 段的完整样式（已合并祖先样式） */
+    final Style[] styles;
+    /** 第 i 段是否加粗（客户端每个字形多 1px） */
+    final boolean[] bold;
+    /** 来自旧的 String 接口：没有样式段，走字符串路径 */
+    final boolean plain;
+
+    private ChatRuns(String text, int[] ends, Style[] styles, boolean[] bold, boolean plain) {
+        this.text = text;
+        this.ends = ends;
+        this.styles = styles;
+        this.bold = bold;
+        this.plain = plain;
+    }
+
+    static ChatRuns plain(String message) {
+        if (message == null || message.isEmpty()) return EMPTY;
+        return new ChatRuns(message, new int[]{message.length()}, new Style[]{Style.empty()}, new boolean[1], true);
+    }
+
+    /**
+     * 展开组件树；keepStyle 为 false 时丢掉所有样式，只保留文字
+     */
+    static ChatRuns flatten(Component message, boolean keepStyle) {
+        Builder b = new Builder();
+        b.walk(message, Style.empty(), keepStyle);
+        return b.build(false);
+    }
+
+    /** merge 策略：多条消息用换行拼成一条；任何一条是 plain 时整体按 plain 处理 */
+    static ChatRuns join(Iterable<ChatRuns> parts) {
+        Builder b = new Builder();
+        boolean plain = false;
+        boolean first = true;
+        for (ChatRuns r : parts) {
+            if (!first) b.append("\n", Style.empty(), false);
+            first = false;
+            plain |= r.plain;
+            int start = 0;
+            for (int i = 0; i < r.ends.length; i++) {
+                b.append(r.text.substring(start, r.ends[i]), r.styles[i], r.bold[i]);
+                start = r.ends[i];
+            }
+        }
+        return plain ? plain(b.text.toString()) : b.build(false);
+    }
+
+    int length() {
+        return text.length();
+    }
+
+    /**
+     * 按排版结果的一行拼回组件：segments 为 [结束下标, 段号, 结束下标, 段号, ...]，下标相对于 line
+     */
+    Component line(String line, int[] segments) {
+        if (segments.length == 2) return Component.text(line, styles[segments[1]]);
+        List<Component> kids = new ArrayList<>(segments.length / 2);
+        int start = 0;
+        for (int k = 0; k < segments.length; k += 2) {
+            int end = segments[k];
+            if (end > start) kids.add(Component.text(line.substring(start, end), styles[segments[k + 1]]));
+            start = end;
+        }
+        return kids.size() == 1 ? kids.get(0) : Component.empty().children(kids);
+    }
+
+    private static final class Builder {
+        /** 翻译格式里的 %s / %1$s / %% */
+        private static final Pattern FORMAT = Pattern.compile("%(?:(\\d+)\\$)?([A-Za-z%])");
+
+        final StringBuilder text = new StringBuilder(64);
+        int[] ends = new int[8];
+        Style[] styles = new Style[8];
+        boolean[] bold = new boolean[8];
+        int n;
+
+        /** 深度优先：先自身内容，再子节点；子节点继承父节点样式 */
+        void walk(Component c, Style inherited, boolean keepStyle) {
+            if (c instanceof TranslatableComponent t) {
+                // 服务器端不知道客户端语言：先按默认语言翻译，翻译器里有这个键时按译文展开（参数已填好）
+                Component rendered = GlobalTranslator.render(t, Locale.US);
+                if (!(rendered instanceof TranslatableComponent)) {
+                    walk(rendered, inherited, keepStyle);
+                    return;
+                }
+            }
+            // 以节点自身样式为准，没写的项才继承父节点
+            Style style = keepStyle ? c.style().merge(inherited, Style.Merge.Strategy.IF_ABSENT_ON_TARGET) : Style.empty();
+            boolean isBold = keepStyle && style.decoration(TextDecoration.BOLD) == TextDecoration.State.TRUE;
+            if (c instanceof TranslatableComponent t) translate(t, style, isBold, keepStyle);
+            else append(content(c), style, isBold);
+            for (Component child : c.children()) walk(child, style, keepStyle);
+        }
+
+        /** 文字 / 按键组件的可见文字 */
+        private static String content(Component c) {
+            if (c instanceof TextComponent t) return t.content();
+            if (c instanceof KeybindComponent k) return k.keybind();
+            return "";
+        }
+
+        /** 没有译文的翻译组件：以 fallback（没有则键名）为格式，把参数按占位符位置展开 */
+        private void translate(TranslatableComponent t, Style style, boolean isBold, boolean keepStyle) {
+            String format = t.fallback() != null ? t.fallback() : t.key();
+            List<Component> args = new ArrayList<>(t.arguments().size());
+            for (var arg : t.arguments()) args.add(arg.asComponent());
+            Matcher m = FORMAT.matcher(format);
+            int last = 0, next = 0;
+            while (m.find()) {
+                append(format.substring(last, m.start()), style, isBold);
+                last = m.end();
+                if (m.group(2).equals("%")) {
+                    append("%", style, isBold);
+                    continue;
+                }
+                int idx = m.group(1) != null ? Integer.parseInt(m.group(1)) - 1 : next++;
+                if (idx >= 0 && idx < args.size()) walk(args.get(idx), style, keepStyle);
+            }
+            append(format.substring(last), style, isBold);
+        }
+
+        void append(String s, Style style, boolean isBold) {
+            if (s.isEmpty()) return;
+            text.append(s);
+            // 与上一段样式相同时直接延长
+            if (n > 0 && bold[n - 1] == isBold && styles[n - 1].equals(style)) {
+                ends[n - 1] = text.length();
+                return;
+            }
+            if (n == ends.length) {
+                ends = Arrays.copyOf(ends, n * 2);
+                styles = Arrays.copyOf(styles, n * 2);
+                bold = Arrays.copyOf(bold, n * 2);
+            }
+            ends[n] = text.length();
+            styles[n] = style;
+            bold[n] = isBold;
+            n++;
+        }
+
+        ChatRuns build(boolean plain) {
+            if (n == 0) return new ChatRuns("", new int[0], new Style[0], new boolean[0], plain);
+            return new ChatRuns(text.toString(), Arrays.copyOf(ends, n), Arrays.copyOf(styles, n), Arrays.copyOf(bold, n), plain);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.sagecraft;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * 气泡实体 [bg, text, tail] 的 id / UUID 回收池
+ *
+ * 气泡结束（销毁包已排进出站批次）后把三元组放回池中，下一个气泡直接复用，
+ * 不再每次向服务器申请新的实体 id。池有上限，超出的直接丢弃。
+ * 无锁实现，各分区线程可以同时取还。
+ */
+final class EntityIdPool {
+
+    private static final int LAYERS = 3;
+
+    private final Queue<BubbleInfo[]> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    /** 新实体 id 的来源（服务器的实体计数器） */
+    private final IntSupplier ids;
+
+    EntityIdPool(int capacity, IntSupplier ids) {
+        this.capacity = Math.max(0, capacity);
+        this.ids = ids;
+    }
+
+    /** 取一组实体（池空时新建） */
+    BubbleInfo[] acquire() {
+        BubbleInfo[] infos = free.poll();
+        if (infos != null) {
+            size.decrementAndGet();
+            return infos;
+        }
+        infos = new BubbleInfo[LAYERS];
+        for (int i = 0; i < LAYERS; i++) {
+            infos[i] = new BubbleInfo(ids.getAsInt(), UUID.randomUUID());
+        }
+        return infos;
+    }
+
+    /** 归还：调用方保证这些实体已在所有客户端上销毁 */
+    void release(BubbleInfo[] infos) {
+        for (BubbleInfo info : infos) info.textContent = null;
+        if (size.incrementAndGet() <= capacity) free.add(infos);
+        else size.decrementAndGet();
+    }
+
+    int size() {
+        return size.get();
+    }
+}
@@ -0,0 +1,51 @@
+package com.sagecraft;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 客户端实体可见性的镜像：记录每个观察者客户端上当前存在哪些玩家实体
+ *
+ * 数据来源是服务器自己发出的生成 / 销毁 / 重生包（PacketEvents 发送事件，netty 线程），
+ * 因此气泡的可见性跟随原版实体追踪器的决定，而不是"当时在线的所有人"。
+ * 插件启动前就已在线的观察者，在下一次进服 / 重生 / 换世界之前没有完整记录，
+ * 对他们 {@link #canSee} 一律返回 true，退回按距离判断。
+ */
+final class EntityTracker {
+
+    /** 观察者 -> 其客户端上存在的玩家实体 id */
+    private final Map<UUID, Set<Integer>> watching = new ConcurrentHashMap<>();
+
+    /** 客户端清空了所有实体（进服 / 重生 / 换世界），从此开始有完整记录 */
+    void reset(UUID viewer) {
+        watching.put(viewer, ConcurrentHashMap.newKeySet());
+    }
+
+    /** 没有完整记录的观察者不记：部分记录会把启动前已追踪的实体误判为不可见 */
+    void spawned(UUID viewer, int entityId) {
+        Set<Integer> set = watching.get(viewer);
+        if (set != null) set.add(entityId);
+    }
+
+    void destroyed(UUID viewer, int entityId) {
+        Set<Integer> set = watching.get(viewer);
+        if (set != null) set.remove(entityId);
+    }
+
+    /** 观察者断线 */
+    void forget(UUID viewer) {
+        watching.remove(viewer);
+    }
+
+    /** 观察者客户端上是否存在该实体；没有完整记录时视为可见 */
+    boolean canSee(UUID viewer, int entityId) {
+        Set<Integer> set = watching.get(viewer);
+        return set == null || set.contains(entityId);
+    }
+
+    void clear() {
+        watching.clear();
+    }
+}
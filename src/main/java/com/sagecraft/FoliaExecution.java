@@ -0,0 +1,126 @@
+package com.sagecraft;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Folia 后端：按区段（2^shift × 2^shift 个区块，与服务器 region 网格一致）分区
+ *
+ * 同一区段总是整体属于一个区域，所以锚定在区段角上的区域任务与段内的说话者始终在同一个线程上；
+ * 各分区互不加锁，区域之间并行推进。说话者相关的工作走其实体调度器，消息队列走全局区域调度器。
+ * 连续空闲一段时间的分区停掉任务并移除，再有气泡进入时重新创建。
+ */
+final class FoliaExecution implements BubbleExecution {
+
+    /** 分区空闲多少 tick 后回收 */
+    private static final int RETIRE_IDLE_TICKS = 200;
+
+    private final JavaPlugin P;
+    private final RegionFactory factory;
+    private final int shift;
+    /** 全局区域每 tick 执行（处理消息队列） */
+    private final Runnable globalTick;
+
+    private final Map<BubbleRegion.Section, BubbleRegion> regions = new ConcurrentHashMap<>();
+    private final Map<BubbleRegion, ScheduledTask> tasks = new ConcurrentHashMap<>();
+    private ScheduledTask global;
+    private volatile boolean running;
+    /** 只由全局区域线程递增 */
+    private volatile long ticks;
+
+    FoliaExecution(JavaPlugin plugin, RegionFactory factory, int shift, Runnable globalTick) {
+        this.P = plugin;
+        this.factory = factory;
+        this.shift = Math.max(0, shift);
+        this.globalTick = globalTick;
+    }
+
+    @Override
+    public void start() {
+        if (running) return;
+        running = true;
+        global = Bukkit.getGlobalRegionScheduler().runAtFixedRate(P, t -> {
+            ticks++;
+            globalTick.run();
+        }, 1L, 1L);
+        for (BubbleRegion r : regions.values()) drive(r);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (global != null) {
+            global.cancel();
+            global = null;
+        }
+        for (ScheduledTask t : tasks.values()) t.cancel();
+        tasks.clear();
+    }
+
+    @Override
+    public BubbleRegion regionFor(Location at) {
+        World w = at.getWorld();
+        int cx = at.getBlockX() >> 4, cz = at.getBlockZ() >> 4;
+        return region(new BubbleRegion.Section(w.getUID(), cx >> shift, cz >> shift), w);
+    }
+
+    private BubbleRegion region(BubbleRegion.Section s, World w) {
+        BubbleRegion r = regions.get(s);
+        if (r != null) return r;
+        return regions.computeIfAbsent(s, k -> {
+            BubbleRegion created = factory.create(k, w, k.x << shift, k.z << shift);
+            if (running) drive(created);
+            return created;
+        });
+    }
+
+    private void drive(BubbleRegion r) {
+        tasks.put(r, Bukkit.getRegionScheduler().runAtFixedRate(P, r.world, r.anchorChunkX, r.anchorChunkZ,
+                t -> tick(r), 1L, 1L));
+    }
+
+    /** 区域线程：推进分区，空闲够久就回收 */
+    private void tick(BubbleRegion r) {
+        r.run();
+        if (!r.idleFor(RETIRE_IDLE_TICKS)) return;
+        regions.remove(r.section, r);
+        ScheduledTask t = tasks.remove(r);
+        if (t != null) t.cancel();
+        // 回收后才到的投递交给同区段的新分区
+        r.retire(task -> region(r.section, r.world).handOff(task));
+    }
+
+    @Override
+    public Collection<BubbleRegion> regions() {
+        return regions.values();
+    }
+
+    @Override
+    public void runFor(Entity speaker, Runnable task) {
+        // 实体已移除时任务直接丢弃（玩家离线，气泡由退出事件清理）
+        speaker.getScheduler().run(P, t -> task.run(), null);
+    }
+
+    @Override
+    public boolean owns(BubbleRegion region) {
+        return Bukkit.isOwnedByCurrentRegion(region.world, region.anchorChunkX, region.anchorChunkZ);
+    }
+
+    @Override
+    public long now() {
+        return ticks;
+    }
+
+    @Override
+    public String name() {
+        return "Folia（按区段分区，区段 " + (1 << shift) + "×" + (1 << shift) + " 区块，现有 " + regions.size() + " 个分区）";
+    }
+}
@@ -0,0 +1,72 @@
+package com.sagecraft;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ItemsAdder 字形图片名 -> 字符的全局索引
+ *
+ * 启用时和 ItemsAdder 每次加载数据后整表重建，用 volatile 引用整体替换，任意线程无锁读取。
+ * 同一张图可以用三种名字查到：namespace:name、namespace_name（与 %img_namespace_name% 一致）和 name；
+ * 不同命名空间下重名时，短名字归 namespace:name 字典序靠前的那个（与 IA 注册表的遍历顺序无关，每次重建结果一致）。
+ *
+ * 表为空（没装 ItemsAdder 或尚未加载完成）时调用方退回 PlaceholderAPI 解析。
+ */
+final class GlyphIndex {
+
+    private volatile Map<String, String> glyphs = Map.of();
+
+    /** 索引是否可用 */
+    boolean ready() {
+        return !glyphs.isEmpty();
+    }
+
+    int size() {
+        return glyphs.size();
+    }
+
+    /**
+     * 按记号查字符，支持 "%img_xxx%" / "img_xxx" / "ns:id" / "ns_id" / "xxx"；查不到返回 null
+     */
+    String lookup(String token) {
+        if (token == null || token.isEmpty()) return null;
+        String key = token;
+        if (key.length() > 1 && key.charAt(0) == '%' && key.charAt(key.length() - 1) == '%') {
+            key = key.substring(1, key.length() - 1);
+        }
+        if (key.startsWith("img_")) key = key.substring(4);
+        return glyphs.get(key);
+    }
+
+    /**
+     * 整表替换：namespace:name -> 字符
+     * 返回被同名短名字挡住的图片（"name: 保留的 id, 被挡住的 id"），由调用方记日志
+     */
+    List<String> replace(Map<String, String> byNamespacedId) {
+        Map<String, String> next = new HashMap<>(byNamespacedId.size() * 3);
+        Map<String, String> owners = new HashMap<>();
+        List<String> shadowed = new ArrayList<>();
+        Map<String, String> sorted = new TreeMap<>();
+        for (Map.Entry<String, String> e : byNamespacedId.entrySet()) {
+            if (e.getKey() != null) sorted.put(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : sorted.entrySet()) {
+            String id = e.getKey(), glyph = e.getValue();
+            if (glyph == null || glyph.isEmpty()) continue;
+            next.put(id, glyph);
+            int colon = id.indexOf(':');
+            if (colon > 0) {
+                String name = id.substring(colon + 1);
+                next.put(id.substring(0, colon) + '_' + name, glyph);
+                String owner = owners.putIfAbsent(name, id);
+                if (owner == null) next.put(name, glyph);
+                else shadowed.add(name + ": " + owner + ", " + id);
+            }
+        }
+        glyphs = Map.copyOf(next);
+        return shadowed;
+    }
+}
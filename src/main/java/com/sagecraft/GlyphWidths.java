@@ -0,0 +1,280 @@
+package com.sagecraft;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 字形宽度表（单位：GUI 像素，含 1px 字间距，即客户端的 advance）
+ *
+ * 启动 / 重载时从服务器资源包的默认字体（minecraft:font/default.json，顺着 reference 展开）构建：
+ * bitmap provider 逐格扫描贴图得到真实宽度，space provider 直接读 advances（包括 ItemsAdder 用来做偏移的负宽字符）。
+ * 与客户端一样，同一码点以排在前面的 provider 为准；资源包没定义的 ASCII 再由原版宽度补上。
+ * 存储为按码点两级分页的 short 数组，查询 O(1)、不分配对象；表里没有的码点走估算。
+ */
+final class GlyphWidths {
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_COUNT = (Character.MAX_CODE_POINT + 1) >> PAGE_BITS;
+    /** 未知码点的标记 */
+    private static final short UNKNOWN = Short.MIN_VALUE;
+
+    /** 聊天与文字展示实体使用的字体 */
+    private static final String DEFAULT_FONT = "minecraft:default";
+
+    /** 原版 ascii.png 中与默认宽度（5px + 1px 间距）不同的字符 */
+    private static final String VANILLA_NARROW = " !\"'(),.:;<>@I[]`fiklt{|}~*";
+    private static final int[] VANILLA_NARROW_PX = {4, 2, 4, 2, 4, 4, 2, 2, 2, 2, 5, 5, 7, 4, 4, 4, 3, 5, 2, 5, 3, 4, 4, 2, 4, 7, 4};
+
+    private final short[][] pages = new short[PAGE_COUNT][];
+    private final int fontPx;
+    private int known;
+
+    private GlyphWidths(int fontPx) {
+        this.fontPx = fontPx;
+    }
+
+    /** 只有原版 ASCII 表 + 估算的空表 */
+    static GlyphWidths fallback(int fontPx) {
+        GlyphWidths w = new GlyphWidths(fontPx);
+        w.putVanillaAscii();
+        return w;
+    }
+
+    /**
+     * 从资源包（zip 或已解压目录）构建；读取失败时退回 {@link #fallback(int)}
+     */
+    static GlyphWidths load(File pack, int fontPx, Logger log) {
+        if (pack == null || !pack.exists()) {
+            log.info("未找到资源包 " + pack + "，字宽使用估算值");
+            return fallback(fontPx);
+        }
+        GlyphWidths w = new GlyphWidths(fontPx);
+        try {
+            PackSource src = pack.isDirectory() ? new DirSource(pack) : new ZipSource(pack);
+            try (src) {
+                w.readFont(src, DEFAULT_FONT, new HashSet<>(), log);
+            }
+            log.info("已从资源包载入 " + w.known + " 个字形宽度");
+        } catch (IOException e) {
+            log.warning("读取资源包字体失败，字宽使用估算值: " + e.getMessage());
+        }
+        // 资源包叠在原版之上：原版的 ASCII 排在资源包的 provider 之后
+        w.putVanillaAscii();
+        return w;
+    }
+
+    /** 单个码点的 advance */
+    int advance(int cp) {
+        if (cp >= 0 && cp <= Character.MAX_CODE_POINT) {
+            short[] page = pages[cp >>> PAGE_BITS];
+            if (page != null) {
+                short v = page[cp & (PAGE_SIZE - 1)];
+                if (v != UNKNOWN) return v;
+            }
+        }
+        return estimate(cp);
+    }
+
+    /** 整段文本宽度（按码点遍历，不分配） */
+    int width(CharSequence s) {
+        int px = 0;
+        for (int i = 0, n = s.length(); i < n; ) {
+            char c = s.charAt(i);
+            int cp = c;
+            if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                cp = Character.toCodePoint(c, s.charAt(i + 1));
+                i += 2;
+            } else {
+                i++;
+            }
+            px += advance(cp);
+        }
+        return px;
+    }
+
+    /** 表中没有的码点：沿用旧的经验估算 */
+    private int estimate(int cp) {
+        if (cp == 32) return Math.max(4, fontPx - 2);
+        if (cp < 128) return fontPx;
+        if ((cp >= 0x4E00 && cp <= 0x9FFF) || (cp >= 0x3040 && cp <= 0x30FF)) return (int) Math.round(fontPx * 1.6);
+        return (int) Math.round(fontPx * 1.3);
+    }
+
+    /** 先写入的为准：客户端按 provider 顺序取第一个定义了该码点的 */
+    private void put(int cp, int px) {
+        if (cp < 0 || cp > Character.MAX_CODE_POINT) return;
+        short[] page = pages[cp >>> PAGE_BITS];
+        if (page == null) {
+            page = new short[PAGE_SIZE];
+            java.util.Arrays.fill(page, UNKNOWN);
+            pages[cp >>> PAGE_BITS] = page;
+        }
+        int idx = cp & (PAGE_SIZE - 1);
+        if (page[idx] != UNKNOWN) return;
+        known++;
+        page[idx] = (short) Math.max(Short.MIN_VALUE + 1, Math.min(Short.MAX_VALUE, px));
+    }
+
+    /** 原版 ASCII 宽度按 font-px 等比缩放（原版基准为 6） */
+    private void putVanillaAscii() {
+        for (int cp = 33; cp < 127; cp++) put(cp, fontPx);
+        for (int i = 0; i < VANILLA_NARROW.length(); i++) {
+            put(VANILLA_NARROW.charAt(i), Math.round(VANILLA_NARROW_PX[i] * fontPx / 6f));
+        }
+    }
+
+    /* ===================== 资源包解析 ===================== */
+
+    /** 按顺序读一个字体的 provider；reference 就地展开成被引用字体的 provider（seen 防止循环引用） */
+    private void readFont(PackSource src, String id, Set<String> seen, Logger log) {
+        if (!seen.add(id)) return;
+        final String path = resourcePath(id, "font/", ".json");
+        JsonObject root;
+        try (InputStream in = src.open(path)) {
+            if (in == null) return;
+            root = JsonParser.parseReader(new InputStreamReader(in, StandardCharsets.UTF_8)).getAsJsonObject();
+        } catch (Exception e) {
+            log.warning("字体定义解析失败 " + path + ": " + e.getMessage());
+            return;
+        }
+        JsonArray providers = root.getAsJsonArray("providers");
+        if (providers == null) return;
+        for (JsonElement el : providers) {
+            if (!el.isJsonObject()) continue;
+            JsonObject p = el.getAsJsonObject();
+            String type = p.has("type") ? p.get("type").getAsString() : "";
+            try {
+                if (type.equals("space")) readSpace(p);
+                else if (type.equals("bitmap")) readBitmap(src, p);
+                else if (type.equals("reference") && p.has("id")) readFont(src, p.get("id").getAsString(), seen, log);
+            } catch (Exception e) {
+                log.warning("字体 provider 解析失败 " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void readSpace(JsonObject p) {
+        JsonObject advances = p.getAsJsonObject("advances");
+        if (advances == null) return;
+        for (Map.Entry<String, JsonElement> e : advances.entrySet()) {
+            String key = e.getKey();
+            if (key.isEmpty()) continue;
+            put(key.codePointAt(0), Math.round(e.getValue().getAsFloat()));
+        }
+    }
+
+    private void readBitmap(PackSource src, JsonObject p) throws IOException {
+        JsonArray chars = p.getAsJsonArray("chars");
+        if (chars == null || chars.size() == 0) return;
+        int height = p.has("height") ? p.get("height").getAsInt() : 8;
+
+        BufferedImage img;
+        try (InputStream in = src.open(resourcePath(p.get("file").getAsString(), "textures/", ""))) {
+            if (in == null) return;
+            img = ImageIO.read(in);
+        }
+        if (img == null) return;
+
+        int rows = chars.size();
+        int cols = chars.get(0).getAsString().codePointCount(0, chars.get(0).getAsString().length());
+        if (cols == 0) return;
+        int cellW = img.getWidth() / cols;
+        int cellH = img.getHeight() / rows;
+        if (cellW == 0 || cellH == 0) return;
+        float scale = height / (float) cellH;
+
+        for (int r = 0; r < rows; r++) {
+            String row = chars.get(r).getAsString();
+            int c = 0;
+            for (int i = 0; i < row.length(); c++) {
+                int cp = row.codePointAt(i);
+                i += Character.charCount(cp);
+                if (cp == 0 || c >= cols) continue;
+                int glyphPx = opaqueWidth(img, c * cellW, r * cellH, cellW, cellH);
+                put(cp, glyphPx == 0 ? 0 : Math.round(glyphPx * scale) + 1);
+            }
+        }
+    }
+
+    /** 格子内最右侧不透明像素所在列 + 1 */
+    private static int opaqueWidth(BufferedImage img, int x0, int y0, int w, int h) {
+        for (int x = w - 1; x >= 0; x--) {
+            for (int y = 0; y < h; y++) {
+                if ((img.getRGB(x0 + x, y0 + y) >>> 24) != 0) return x + 1;
+            }
+        }
+        return 0;
+    }
+
+    /** "ns:path.png" + "textures/" -> assets/ns/textures/path.png；"ns:name" + "font/" + ".json" -> assets/ns/font/name.json */
+    private static String resourcePath(String location, String dir, String suffix) {
+        String ns = "minecraft", path = location;
+        int colon = location.indexOf(':');
+        if (colon >= 0) {
+            ns = location.substring(0, colon);
+            path = location.substring(colon + 1);
+        }
+        return "assets/" + ns + "/" + dir + path + suffix;
+    }
+
+    /** 资源包来源：zip 或目录 */
+    private interface PackSource extends AutoCloseable {
+        InputStream open(String path) throws IOException;
+        @Override void close() throws IOException;
+    }
+
+    private static final class ZipSource implements PackSource {
+        private final ZipFile zip;
+
+        ZipSource(File file) throws IOException {
+            this.zip = new ZipFile(file);
+        }
+
+        @Override
+        public InputStream open(String path) throws IOException {
+            ZipEntry e = zip.getEntry(path);
+            return e == null ? null : zip.getInputStream(e);
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    private static final class DirSource implements PackSource {
+        private final File root;
+
+        DirSource(File root) {
+            this.root = root;
+        }
+
+        @Override
+        public InputStream open(String path) throws IOException {
+            File f = new File(root, path);
+            return f.isFile() ? Files.newInputStream(f.toPath()) : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.sagecraft;
+
+import dev.lone.itemsadder.api.Events.ItemsAdderLoadDataEvent;
+import dev.lone.itemsadder.api.FontImages.FontImageWrapper;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 从 ItemsAdder 注册表灌入 {@link GlyphIndex}：启用时一次，之后每次 IA 加载 / 重载数据完成时一次
+ *
+ * 只有装了 ItemsAdder 才会加载这个类（Main 里先判断插件是否存在）。
+ */
+final class ItemsAdderGlyphs implements Listener {
+
+    private final JavaPlugin P;
+    private final PacketEventsBubbleManager bubbles;
+
+    ItemsAdderGlyphs(JavaPlugin plugin, PacketEventsBubbleManager bubbles) {
+        this.P = plugin;
+        this.bubbles = bubbles;
+    }
+
+    /** IA 数据已加载（例如只重载了本插件）时直接建索引；否则等加载事件 */
+    void loadIfReady() {
+        if (load() > 0) bubbles.glyphsReloaded();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onItemsAdderLoad(ItemsAdderLoadDataEvent event) {
+        int n = load();
+        bubbles.glyphsReloaded();
+        P.getLogger().info("已从 ItemsAdder 载入 " + n + " 个字形图片");
+    }
+
+    /** 读取全部字形图片并整表替换索引，返回图片数 */
+    private int load() {
+        Map<String, String> byId = new HashMap<>();
+        try {
+            for (String id : FontImageWrapper.getNamespacedIdsInRegistry()) {
+                FontImageWrapper img = new FontImageWrapper(id);
+                if (img.exists()) byId.put(id, img.getString());
+            }
+        } catch (Throwable t) {
+            // IA 尚未完成加载时注册表可能不可用，保留旧索引
+            P.getLogger().warning("读取 ItemsAdder 字形失败: " + t);
+            return 0;
+        }
+        for (String clash : bubbles.glyphIndex().replace(byId)) {
+            P.getLogger().info("字形短名字重名，短名字归前者，后者需带命名空间 - " + clash);
+        }
+        return byId.size();
+    }
+}
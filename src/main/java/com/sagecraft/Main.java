@@ -1,16 +1,22 @@
 package com.sagecraft;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
-import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
+import io.papermc.paper.event.player.AsyncChatEvent;
 import com.github.retrooper.packetevents.PacketEvents;
 import com.github.retrooper.packetevents.event.PacketListenerPriority;
 import io.github.retrooper.packetevents.factory.spigot.SpigotPacketEventsBuilder;
@@ -29,7 +35,18 @@ public final class Main extends JavaPlugin implements Listener {
         // Plugin startup logic
         saveDefaultConfig();
         packetBubbles = new PacketEventsBubbleManager(this);
+        packetBubbles.start();
+        trackOnlinePlayers();
         getServer().getPluginManager().registerEvents(this, this);
+        // IA 字形索引：启用时读一次，之后跟随 IA 每次加载数据刷新
+        if (getServer().getPluginManager().getPlugin("ItemsAdder") != null) {
+            ItemsAdderGlyphs ia = new ItemsAdderGlyphs(this, packetBubbles);
+            getServer().getPluginManager().registerEvents(ia, this);
+            ia.loadIfReady();
+        }
+        
+        // 对外气泡接口：其他插件经 ServicesManager 取用
+        getServer().getServicesManager().register(BubbleService.class, packetBubbles, this, ServicePriority.Normal);
         
         // 注册PacketEvents监听器
         PacketEvents.getAPI().getEventManager().registerListener(packetBubbles, PacketListenerPriority.NORMAL);
@@ -40,10 +57,8 @@ public final class Main extends JavaPlugin implements Listener {
     @Override
     public void onDisable() {
         // Plugin shutdown logic
-        // 清理所有玩家的气泡数据
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            packetBubbles.cleanupPlayer(player.getUniqueId());
-        }
+        // 停止驱动任务并清理所有玩家的气泡数据
+        packetBubbles.shutdown();
         getLogger().info("ChatBubble 插件已禁用！");
         PacketEvents.getAPI().terminate();
     }
@@ -57,16 +72,62 @@ public final class Main extends JavaPlugin implements Listener {
                     return true;
                 }
                 
-                // 重新加载配置
+                // 重新加载配置并替换快照；存活气泡与驱动任务不受影响
                 reloadConfig();
-                // 重新初始化PacketEventsBubbleManager
-                packetBubbles = new PacketEventsBubbleManager(this);
+                packetBubbles.reload();
                 sender.sendMessage("§aChatBubble 配置已重新加载！");
                 return true;
             }
             
+            if (args.length > 0 && args[0].equalsIgnoreCase("stats")) {
+                if (!sender.hasPermission("chatbubble.stats")) {
+                    sender.sendMessage("§c你没有权限使用此命令！");
+                    return true;
+                }
+                
+                if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+                    packetBubbles.resetStats();
+                    sender.sendMessage("§aChatBubble 统计已清零！");
+                    return true;
+                }
+                // 存活数量由各分区在自己的线程上数完再回报（Folia 下不在命令线程上遍历气泡）
+                packetBubbles.stats(lines -> {
+                    sender.sendMessage("§eChatBubble 运行统计：");
+                    for (String line : lines) {
+                        sender.sendMessage("§7" + line);
+                    }
+                });
+                return true;
+            }
+            
+            if (args.length > 0 && args[0].equalsIgnoreCase("trace")) {
+                if (!sender.hasPermission("chatbubble.trace")) {
+                    sender.sendMessage("§c你没有权限使用此命令！");
+                    return true;
+                }
+                
+                String sub = args.length > 1 ? args[1].toLowerCase() : "";
+                switch (sub) {
+                    case "on":
+                    case "off":
+                        packetBubbles.tracing(sub.equals("on"));
+                        sender.sendMessage("§aChatBubble 调试追踪已" + (sub.equals("on") ? "开启" : "关闭") + "！");
+                        break;
+                    case "dump":
+                        // 写文件在异步线程完成，结果直接回给发送者
+                        packetBubbles.dumpTrace(msg -> sender.sendMessage("§7" + msg));
+                        break;
+                    default:
+                        sender.sendMessage("§7/chatbubble trace <on|off|dump> §8- 开关 / 导出发包调试追踪");
+                        break;
+                }
+                return true;
+            }
+            
             sender.sendMessage("§eChatBubble 插件命令：");
             sender.sendMessage("§7/chatbubble reload §8- 重新加载配置文件");
+            sender.sendMessage("§7/chatbubble stats [reset] §8- 查看 / 清零运行统计");
+            sender.sendMessage("§7/chatbubble trace <on|off|dump> §8- 开关 / 导出发包调试追踪");
             return true;
         }
         
@@ -118,27 +179,52 @@ public final class Main extends JavaPlugin implements Listener {
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
-    public void onChat(AsyncPlayerChatEvent e) {
-        // 异步事件，需要切换到主线程处理实体操作
-        Player player = e.getPlayer();
-        String message = e.getMessage();
-        
-        // 在主线程中执行气泡创建
-        Bukkit.getScheduler().runTask(this, () -> {
-            // 使用PacketEvents气泡管理器
-            packetBubbles.onChat(player, message);
-        });
+    public void onChat(AsyncChatEvent e) {
+        // 直接交给气泡管理器：消息组件在这里展开一次，排版在工作线程完成，只有读取玩家状态那一小段回到主线程
+        packetBubbles.onChat(e.getPlayer(), e.message());
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerMove(PlayerMoveEvent e) {
-        // 使用Packet系统，位置更新由BubbleTag内部处理
-        // 不再需要手动调用更新方法
+        // 气泡本身靠 passenger 跟随；这里只在走过一格时更新观察者空间索引（跨区块时才挪桶）
+        Location from = e.getFrom(), to = e.getTo();
+        if (from.getWorld() == to.getWorld()
+                && from.getBlockX() == to.getBlockX()
+                && from.getBlockZ() == to.getBlockZ()) return;
+        packetBubbles.trackPlayer(e.getPlayer(), to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent e) {
+        packetBubbles.trackPlayer(e.getPlayer(), e.getTo());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent e) {
+        packetBubbles.trackPlayer(e.getPlayer(), e.getRespawnLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent e) {
+        packetBubbles.trackPlayer(e.getPlayer(), e.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent e) {
+        packetBubbles.trackPlayer(e.getPlayer(), e.getPlayer().getLocation());
     }
 
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent e) {
         // 玩家退出时清理气泡数据
         packetBubbles.cleanupPlayer(e.getPlayer().getUniqueId());
+        packetBubbles.untrackPlayer(e.getPlayer());
+    }
+
+    /** 把当前在线玩家全部放进空间索引（启用 / 重载时） */
+    private void trackOnlinePlayers() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            packetBubbles.trackPlayer(player, player.getLocation());
+        }
     }
 }
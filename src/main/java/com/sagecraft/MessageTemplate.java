@@ -0,0 +1,226 @@
+package com.sagecraft;
+
+import me.clip.placeholderapi.PlaceholderAPI;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 预编译的 mini-message 模板 + 按行的成品组件缓存
+ *
+ * 模板只在 reload 时用 MiniMessage 解析一次，记下 %message% 所在文本节点到根的路径；
+ * 每行只把用户文本作为不解析的文本组件插进该节点，再沿路径重建祖先，不再跑 MiniMessage。
+ * 同一行文本（问候、刷屏、NPC 台词）直接命中缓存。
+ *
+ * 模板里 %message% 不在普通文本位置（例如在 hover 参数里），或开启 use-papi-for-text 且模板本身还有
+ * 其他占位符时，退回逐行"替换 + PAPI + 解析"。
+ *
+ * 组件消息（AsyncChatEvent）的行已经是成品组件，预编译路径直接挂进插槽，不走缓存。
+ *
+ * 随 {@link BubbleSettings} 一起编译；缓存有锁，可以在任意线程使用。
+ */
+final class MessageTemplate {
+
+    private static final String SLOT = "%message%";
+    /** Unicode 非字符，不会出现在模板或资源包字形里 */
+    private static final String SENTINEL = "\uFDD0\uFDD1";
+
+    private final MiniMessage mm = MiniMessage.miniMessage();
+    private final String template;
+    private final boolean papi;
+
+    /** 插槽所在节点到根的祖先（根在前）与各级子节点下标；slot 为 null 表示走逐行解析 */
+    private final Component[] ancestors;
+    private final int[] childIndex;
+    private final TextComponent slot;
+    private final String prefix;
+    private final String suffix;
+    /** 逐行解析且结果与玩家有关时不缓存 */
+    private final boolean cacheable;
+
+    private final Map<String, Component> cache;
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    MessageTemplate(String template, boolean papi, int cacheSize) {
+        this.template = template == null ? SLOT : template;
+        this.papi = papi;
+        this.capacity = Math.max(0, cacheSize);
+        this.cache = new LinkedHashMap<>(Math.min(capacity, 1024) * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Component> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        final boolean templatePlaceholders = papi && this.template.replace(SLOT, "").indexOf('%') >= 0;
+        List<Component> path = new ArrayList<>();
+        List<Integer> index = new ArrayList<>();
+        TextComponent found = null;
+        if (!templatePlaceholders && occurrences(this.template, SLOT) == 1) {
+            Component root = mm.deserialize(this.template.replace(SLOT, SENTINEL));
+            if (countSentinels(root) == 1) found = locate(root, path, index);
+        }
+        this.slot = found;
+        this.ancestors = path.toArray(new Component[0]);
+        this.childIndex = index.stream().mapToInt(Integer::intValue).toArray();
+        if (found != null) {
+            String c = found.content();
+            int at = c.indexOf(SENTINEL);
+            this.prefix = c.substring(0, at);
+            this.suffix = c.substring(at + SENTINEL.length());
+        } else {
+            this.prefix = this.suffix = "";
+        }
+        this.cacheable = found != null || !papi;
+    }
+
+    /**
+     * 一行文本的成品组件；line 是 {@link TextLayout} 输出的已转义文本
+     */
+    Component render(Player player, String line) {
+        if (slot == null) {
+            if (!cacheable) return parse(player, line);
+            Component c = cached(line);
+            return c != null ? c : store(line, parse(player, line));
+        }
+        String text = unescape(line);
+        if (papi) text = PlaceholderAPI.setPlaceholders(player, text);
+        Component c = cached(text);
+        return c != null ? c : store(text, substitute(Component.text(text)));
+    }
+
+    /**
+     * 组件消息的一行：plain 是该行原文，line 是按样式段拼好的组件。
+     * 插槽不在普通文本位置时只能退回按原文逐行解析，组件自带的样式会丢失
+     */
+    Component render(Player player, String plain, Component line) {
+        if (slot == null) return render(player, escape(plain));
+        return substitute(line);
+    }
+
+    /** 是否走预编译路径 */
+    boolean precompiled() {
+        return slot != null;
+    }
+
+    private Component parse(Player player, String line) {
+        String mmText = template.replace(SLOT, line);
+        if (papi) mmText = PlaceholderAPI.setPlaceholders(player, mmText);
+        return mm.deserialize(mmText);
+    }
+
+    /** 插槽节点拆成 前缀 + 用户文本 + 后缀 + 原有子节点，再沿路径重建祖先 */
+    private Component substitute(Component text) {
+        List<Component> kids = new ArrayList<>(slot.children().size() + 2);
+        kids.add(text);
+        if (!suffix.isEmpty()) kids.add(Component.text(suffix));
+        kids.addAll(slot.children());
+        Component node = slot.content(prefix).children(kids);
+        for (int d = ancestors.length - 1; d >= 0; d--) {
+            List<Component> siblings = new ArrayList<>(ancestors[d].children());
+            siblings.set(childIndex[d], node);
+            node = ancestors[d].children(siblings);
+        }
+        return node;
+    }
+
+    private Component cached(String key) {
+        if (capacity == 0) return null;
+        Component c;
+        synchronized (cache) {
+            c = cache.get(key);
+        }
+        if (c != null) hits.increment();
+        else misses.increment();
+        return c;
+    }
+
+    private Component store(String key, Component c) {
+        if (capacity == 0) return c;
+        synchronized (cache) {
+            cache.put(key, c);
+        }
+        return c;
+    }
+
+    int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /** 命中率 0..1，无请求时为 0 */
+    double hitRate() {
+        long h = hits.sum(), m = misses.sum();
+        return h + m == 0 ? 0 : h / (double) (h + m);
+    }
+
+    /** 去掉 TextLayout 加的 MiniMessage 转义（'\' 后跟 '<' 或 '\'） */
+    private static String unescape(String s) {
+        int i = s.indexOf('\\');
+        if (i < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        sb.append(s, 0, i);
+        for (; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(i + 1);
+                if (n == '<' || n == '\\') {
+                    sb.append(n);
+                    i++;
+                    continue;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /** 与 TextLayout 相同的 MiniMessage 转义：'<' 与 '\' 前加反斜杠 */
+    private static String escape(String s) {
+        if (s.indexOf('<') < 0 && s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '<' || c == '\\') sb.append('\\');
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static int occurrences(String s, String part) {
+        int n = 0;
+        for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + part.length())) n++;
+        return n;
+    }
+
+    private static int countSentinels(Component c) {
+        int n = c instanceof TextComponent t ? occurrences(t.content(), SENTINEL) : 0;
+        for (Component child : c.children()) n += countSentinels(child);
+        return n;
+    }
+
+    /** 深度优先找含插槽的文本节点，path / index 记录其祖先与下标 */
+    private static TextComponent locate(Component c, List<Component> path, List<Integer> index) {
+        if (c instanceof TextComponent t && t.content().contains(SENTINEL)) return t;
+        List<Component> children = c.children();
+        for (int i = 0; i < children.size(); i++) {
+            path.add(c);
+            index.add(i);
+            TextComponent found = locate(children.get(i), path, index);
+            if (found != null) return found;
+            path.remove(path.size() - 1);
+            index.remove(index.size() - 1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,146 @@
+package com.sagecraft;
+
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * 按观察者、按实体记录"上次发出的元数据值"，之后的每次发送只带与记录不同的索引
+ *
+ * 生成时记录清空，静态字段（行宽、背景色、flags、billboard、平移）只随生成包发一次；
+ * 动画 / 换字只发真正变化的那几项。变化集合相同的观察者分成一组，
+ * 每组仍然只编码一次（{@link SharedPacket}）。
+ *
+ * 每个 {@link BubbleRegion} 一份，只有本分区线程和为其发包的工作线程会竞争；
+ * 所有方法加同一把锁：差分计算和排进出站批次在锁内完成，记录与客户端实际收到的顺序一致。
+ */
+final class MetadataLedger {
+
+    /** 记录的索引范围：Display 插值延迟 (8) 到 TextDisplay flags (27) */
+    private static final int BASE = 8;
+    private static final int SLOTS = 27 - BASE + 1;
+
+    /** 触发型索引：值可能不变，但只要本次有其他变化就必须一起发（写入即重启插值） */
+    private final int triggerIndex;
+
+    /** 观察者 -> 实体 id -> 各索引上次发出的值 */
+    private final Map<UUID, Map<Integer, Object[]>> sent = new HashMap<>();
+
+    MetadataLedger(int triggerIndex) {
+        this.triggerIndex = triggerIndex;
+    }
+
+    /**
+     * 发送一组元数据：fresh 为 true 表示实体刚生成，先清空记录
+     * sink 收到的是按变化集合分组后的包和对应观察者
+     */
+    synchronized void send(int entityId, List<EntityData<?>> md, Collection<User> users, boolean fresh,
+                           BiConsumer<PacketWrapper<?>, List<User>> sink) {
+        if (users.isEmpty() || md.isEmpty()) return;
+        final int n = Math.min(md.size(), 31);
+        int always = 0;
+        for (int k = 0; k < n; k++) {
+            int idx = md.get(k).getIndex();
+            if (idx == triggerIndex || idx < BASE || idx >= BASE + SLOTS) always |= 1 << k;
+        }
+
+        // 变化掩码 -> 观察者；绝大多数情况下只有一组
+        Map<Integer, List<User>> groups = new HashMap<>(4);
+        for (User user : users) {
+            UUID id = user.getUUID();
+            int mask;
+            if (id == null) {
+                mask = (1 << n) - 1;
+            } else {
+                Object[] last = record(id, entityId, fresh);
+                int changed = 0;
+                for (int k = 0; k < n; k++) {
+                    if ((always & (1 << k)) != 0) continue;
+                    EntityData<?> d = md.get(k);
+                    int slot = d.getIndex() - BASE;
+                    if (!Objects.equals(last[slot], d.getValue())) {
+                        last[slot] = d.getValue();
+                        changed |= 1 << k;
+                    }
+                }
+                if (changed == 0) continue;
+                mask = changed | always;
+            }
+            groups.computeIfAbsent(mask, m -> new ArrayList<>()).add(user);
+        }
+
+        for (Map.Entry<Integer, List<User>> g : groups.entrySet()) {
+            int mask = g.getKey();
+            List<EntityData<?>> part;
+            if (mask == (1 << n) - 1 && n == md.size()) {
+                part = md;
+            } else {
+                part = new ArrayList<>(Integer.bitCount(mask));
+                for (int k = 0; k < n; k++) {
+                    if ((mask & (1 << k)) != 0) part.add(md.get(k));
+                }
+            }
+            sink.accept(new WrapperPlayServerEntityMetadata(entityId, part), g.getValue());
+        }
+    }
+
+    private Object[] record(UUID viewer, int entityId, boolean fresh) {
+        Map<Integer, Object[]> byEntity = sent.computeIfAbsent(viewer, k -> new HashMap<>());
+        Object[] last = byEntity.get(entityId);
+        if (last == null) {
+            last = new Object[SLOTS];
+            byEntity.put(entityId, last);
+        } else if (fresh) {
+            Arrays.fill(last, null);
+        }
+        return last;
+    }
+
+    /**
+     * 记录过的值没有真正送达（可丢弃帧在出站批次里被丢掉）：清掉这些索引，
+     * 下一次发送无论值是否相同都会带上它们
+     */
+    synchronized void invalidate(User user, int entityId, List<EntityData<?>> md) {
+        UUID id = user.getUUID();
+        if (id == null) return;
+        Map<Integer, Object[]> byEntity = sent.get(id);
+        Object[] last = byEntity == null ? null : byEntity.get(entityId);
+        if (last == null) return;
+        for (EntityData<?> d : md) {
+            int slot = d.getIndex() - BASE;
+            if (slot >= 0 && slot < SLOTS) last[slot] = null;
+        }
+    }
+
+    /** 这些实体已在这些观察者客户端上销毁 */
+    synchronized void forget(Collection<User> users, int[] entityIds) {
+        for (User user : users) {
+            UUID id = user.getUUID();
+            if (id == null) continue;
+            Map<Integer, Object[]> byEntity = sent.get(id);
+            if (byEntity == null) continue;
+            for (int e : entityIds) byEntity.remove(e);
+            if (byEntity.isEmpty()) sent.remove(id);
+        }
+    }
+
+    /** 观察者离线 / 客户端清空了所有实体 */
+    synchronized void forgetViewer(UUID viewer) {
+        sent.remove(viewer);
+    }
+
+    synchronized void clear() {
+        sent.clear();
+    }
+}
@@ -0,0 +1,340 @@
+package com.sagecraft;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.manager.protocol.ProtocolManager;
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBundle;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * 按观察者收集的出站包批次
+ *
+ * 一个 tick 内发给同一玩家的所有气泡包（生成、元数据、passenger、动画帧、销毁）先排进该玩家的队列，
+ * 由驱动任务在 tick 末尾统一写出：多于一个包时用 bundle 分隔符包起来，客户端在同一帧内一起应用，
+ * 不会出现实体先出现、元数据后到的闪烁；每个玩家每 tick 只 flush 一次。
+ *
+ * 每个玩家每 tick 有包数 / 字节预算。逐 tick 动画的中间帧标记为可丢弃：
+ * 超出预算时按"说话者离得近、气泡新"的顺序保留，其余丢掉；连接不可写（netty 出站缓冲已积压）时
+ * 中间帧全部丢掉，只发生成、销毁、换字和各段的最终状态。被丢掉的帧通知调用方（元数据账本据此作废记录）。
+ * 插值动画模式下每段只有一个必达的目标包，没有可丢弃帧，预算不起作用。
+ *
+ * 每个 {@link BubbleRegion} 一份。入队可以在任意线程；{@link #flush} 只由驱动该分区的线程调用。
+ * 工作线程逐个入队时 flush 可能夹在两次入队之间：必须同批写出的一组包（生成 + 元数据 + passenger）
+ * 放进 {@link #atomically}，先在本线程按观察者攒好，再一次性接到各自的队列末尾。
+ */
+final class OutboundBatch {
+
+    /** 客户端单个 bundle 最多接受 4096 个包，留出余量 */
+    private static final int MAX_BUNDLE = 4000;
+    /** 回退路径（未编码的 wrapper）按这个字节数估算 */
+    private static final int WRAPPER_BYTES_ESTIMATE = 64;
+
+    /** 一个待写的包 */
+    private static final class Item {
+        /** ByteBuf（已编码）或 PacketWrapper（回退路径） */
+        Object payload;
+        /** 包类型名，统计用 */
+        final String type;
+        final int bytes;
+        /** 可丢弃的中间动画帧 */
+        final boolean droppable;
+        /** 可丢弃帧所属的说话者与气泡开始时刻，用于排优先级 */
+        final UUID speaker;
+        final long startedAt;
+        /** 可丢弃帧被丢掉时回调（参数为本应收到它的观察者） */
+        final Consumer<User> onDrop;
+
+        Item(Object payload, String type, boolean droppable, UUID speaker, long startedAt, Consumer<User> onDrop) {
+            this.payload = payload;
+            this.type = type;
+            this.bytes = payload instanceof PacketWrapper<?> ? WRAPPER_BYTES_ESTIMATE : ByteBufHelper.readableBytes(payload);
+            this.droppable = droppable;
+            this.speaker = speaker;
+            this.startedAt = startedAt;
+            this.onDrop = onDrop;
+        }
+    }
+
+    /** 单个玩家的待发队列 */
+    private static final class Pending {
+        final User user;
+        List<Item> items = new ArrayList<>();
+        boolean queued;
+
+        Pending(User user) {
+            this.user = user;
+        }
+    }
+
+    private static final String BUNDLE = "Bundle";
+
+    private final BubbleMetrics metrics;
+    /** 说话者与观察者的距离取自空间索引记录的坐标（flush 线程不读 Player） */
+    private final ViewerGrid grid;
+    private final Map<User, Pending> pending = new ConcurrentHashMap<>();
+    /** 本 tick 有包待发的玩家 */
+    private final Queue<Pending> dirty = new ConcurrentLinkedQueue<>();
+    /** 当前线程正在攒的一组包（按观察者，保持入队顺序）；不在 atomically 里时为 null */
+    private final ThreadLocal<Map<User, List<Item>>> group = new ThreadLocal<>();
+
+    OutboundBatch(BubbleMetrics metrics, ViewerGrid grid) {
+        this.metrics = metrics;
+        this.grid = grid;
+    }
+
+    /** 同一个包编码一次，排进 users 中每个人的队列（必达） */
+    void add(PacketWrapper<?> packet, Iterable<User> users) {
+        add(packet, users, false, null, 0, null);
+    }
+
+    /** 可丢弃的中间动画帧；onDrop 在某个观察者的这一帧被丢掉时调用（分区线程） */
+    void addFrame(PacketWrapper<?> packet, Iterable<User> users, UUID speaker, long startedAt, Consumer<User> onDrop) {
+        add(packet, users, true, speaker, startedAt, onDrop);
+    }
+
+    private void add(PacketWrapper<?> packet, Iterable<User> users, boolean droppable, UUID speaker, long startedAt,
+                     Consumer<User> onDrop) {
+        final String type = BubbleMetrics.typeName(packet);
+        try (SharedPacket shared = new SharedPacket(packet)) {
+            for (User user : users) {
+                if (user == null) continue;
+                enqueue(user, new Item(shared.payloadFor(user), type, droppable, speaker, startedAt, onDrop));
+            }
+        }
+    }
+
+    /**
+     * body 里入队的包先留在本线程，结束后每个观察者的那一组在一次加锁内接到队列末尾：
+     * 同一组包对每个观察者总是落在同一次写出（同一个 bundle）里。可以嵌套，只在最外层提交
+     */
+    void atomically(Runnable body) {
+        if (group.get() != null) {
+            body.run();
+            return;
+        }
+        Map<User, List<Item>> local = new HashMap<>();
+        group.set(local);
+        try {
+            body.run();
+        } finally {
+            group.remove();
+            for (Map.Entry<User, List<Item>> e : local.entrySet()) enqueue(e.getKey(), e.getValue());
+        }
+    }
+
+    private void enqueue(User user, Item item) {
+        Map<User, List<Item>> local = group.get();
+        if (local != null) {
+            local.computeIfAbsent(user, u -> new ArrayList<>()).add(item);
+            return;
+        }
+        enqueue(user, List.of(item));
+    }
+
+    private void enqueue(User user, List<Item> items) {
+        Pending p = pending.computeIfAbsent(user, Pending::new);
+        synchronized (p) {
+            p.items.addAll(items);
+            if (!p.queued) {
+                p.queued = true;
+                dirty.add(p);
+            }
+        }
+    }
+
+    /** 没有待发包 */
+    boolean isEmpty() {
+        return dirty.isEmpty();
+    }
+
+    /**
+     * 写出并 flush 所有待发包（分区线程，每 tick 一次）
+     * maxPackets / maxBytes：每个玩家本 tick 的预算，只约束可丢弃帧
+     */
+    void flush(int maxPackets, int maxBytes) {
+        if (dirty.isEmpty()) return;
+        final ProtocolManager protocol = PacketEvents.getAPI().getProtocolManager();
+        try (SharedPacket delimiter = new SharedPacket(new WrapperPlayServerBundle())) {
+            Pending p;
+            while ((p = dirty.poll()) != null) {
+                List<Item> items;
+                synchronized (p) {
+                    items = p.items;
+                    p.items = new ArrayList<>();
+                    p.queued = false;
+                }
+                trim(p.user, items, maxPackets, maxBytes);
+                write(protocol, p.user, items, delimiter);
+            }
+        }
+    }
+
+    /**
+     * 超预算或连接不可写时丢掉可丢弃帧：必达包全部保留并先占预算，
+     * 剩余预算按说话者距离由近到远、气泡由新到旧分给可丢弃帧
+     */
+    private void trim(User user, List<Item> items, int maxPackets, int maxBytes) {
+        int packets = items.size(), bytes = 0, droppable = 0;
+        for (Item it : items) {
+            bytes += it.bytes;
+            if (it.droppable) droppable++;
+        }
+        if (droppable == 0) return;
+        boolean writable = isWritable(user.getChannel());
+        if (writable && packets <= maxPackets && bytes <= maxBytes) return;
+
+        List<Item> frames = new ArrayList<>(droppable);
+        int usedPackets = 0, usedBytes = 0;
+        for (Item it : items) {
+            if (it.droppable) frames.add(it);
+            else {
+                usedPackets++;
+                usedBytes += it.bytes;
+            }
+        }
+        if (writable) {
+            frames.sort(priority(user));
+            for (Item it : frames) {
+                if (usedPackets + 1 > maxPackets || usedBytes + it.bytes > maxBytes) {
+                    dropFrame(user, it);
+                    metrics.framesDropped.increment();
+                } else {
+                    usedPackets++;
+                    usedBytes += it.bytes;
+                }
+            }
+        } else {
+            for (Item it : frames) dropFrame(user, it);
+            metrics.framesDropped.add(frames.size());
+        }
+        items.removeIf(it -> it.payload == null);
+    }
+
+    /** 说话者离观察者近的优先，其次气泡新的优先 */
+    private Comparator<Item> priority(User user) {
+        UUID viewerId = user.getUUID();
+        Map<UUID, Double> dist = new HashMap<>();
+        Comparator<Item> byDistance = Comparator.comparingDouble(it -> dist.computeIfAbsent(it.speaker,
+                id -> id == null || viewerId == null ? Double.MAX_VALUE : grid.distanceSquared(id, viewerId)));
+        return byDistance.thenComparing(Comparator.comparingLong((Item it) -> it.startedAt).reversed());
+    }
+
+    /** 丢掉一帧，并让发送方作废它在账本里的记录 */
+    private static void dropFrame(User user, Item it) {
+        drop(it);
+        if (it.onDrop != null) it.onDrop.accept(user);
+    }
+
+    private static void drop(Item it) {
+        if (!(it.payload instanceof PacketWrapper<?>)) ByteBufHelper.release(it.payload);
+        it.payload = null;
+    }
+
+    private void write(ProtocolManager protocol, User user, List<Item> items, SharedPacket delimiter) {
+        final int n = items.size();
+        if (n == 0) return;
+        final boolean bundled = n > 1 && supportsBundle(user);
+        try {
+            for (int from = 0; from < n; from += MAX_BUNDLE) {
+                int to = Math.min(n, from + MAX_BUNDLE);
+                if (bundled) writeDelimiter(protocol, user, delimiter);
+                for (int i = from; i < to; i++) {
+                    Item it = items.get(i);
+                    writeOne(protocol, user, it.payload);
+                    it.payload = null;
+                    metrics.packetSent(it.type, it.bytes);
+                }
+                if (bundled) writeDelimiter(protocol, user, delimiter);
+            }
+            user.flushPackets();
+        } catch (Exception e) {
+            // 连接已断开等：没写出去的缓冲自己释放
+            release(items);
+        }
+    }
+
+    private void writeDelimiter(ProtocolManager protocol, User user, SharedPacket delimiter) {
+        Object payload = delimiter.payloadFor(user);
+        int bytes = payload instanceof PacketWrapper<?> ? WRAPPER_BYTES_ESTIMATE : ByteBufHelper.readableBytes(payload);
+        writeOne(protocol, user, payload);
+        metrics.packetSent(BUNDLE, bytes);
+    }
+
+    private static void writeOne(ProtocolManager protocol, User user, Object payload) {
+        if (payload instanceof PacketWrapper<?> wrapper) {
+            user.writePacket(wrapper);
+        } else {
+            protocol.writePacket(user.getChannel(), payload);
+        }
+    }
+
+    /** bundle 包从 1.19.4 起才有 */
+    private static boolean supportsBundle(User user) {
+        ClientVersion v = user.getClientVersion();
+        return v != null && v.isNewerThanOrEquals(ClientVersion.V_1_19_4);
+    }
+
+    /* ---------- netty 背压：Channel#isWritable，按运行时类缓存方法句柄 ---------- */
+
+    private static final ClassValue<MethodHandle> IS_WRITABLE = new ClassValue<>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            try {
+                return MethodHandles.publicLookup().findVirtual(type, "isWritable", MethodType.methodType(boolean.class));
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+    };
+
+    /** 出站缓冲超过高水位时 netty 报告不可写；取不到时按可写处理 */
+    private static boolean isWritable(Object channel) {
+        if (channel == null) return true;
+        MethodHandle mh = IS_WRITABLE.get(channel.getClass());
+        if (mh == null) return true;
+        try {
+            return (boolean) mh.invoke(channel);
+        } catch (Throwable t) {
+            return true;
+        }
+    }
+
+    /** 玩家离线：丢弃其待发包 */
+    void discard(User user) {
+        if (user == null) return;
+        Pending p = pending.remove(user);
+        if (p == null) return;
+        synchronized (p) {
+            release(p.items);
+            p.items = new ArrayList<>();
+        }
+    }
+
+    /** 丢弃所有待发包 */
+    void clear() {
+        for (User user : new ArrayList<>(pending.keySet())) discard(user);
+        dirty.clear();
+    }
+
+    private static void release(List<Item> items) {
+        for (Item it : items) {
+            if (it.payload != null) drop(it);
+        }
+    }
+}
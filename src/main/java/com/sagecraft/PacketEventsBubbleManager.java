@@ -3,43 +3,51 @@ package com.sagecraft;
 import com.github.retrooper.packetevents.PacketEvents;
 import com.github.retrooper.packetevents.event.PacketListener;
 import com.github.retrooper.packetevents.event.PacketReceiveEvent;
+import com.github.retrooper.packetevents.event.PacketSendEvent;
+import com.github.retrooper.packetevents.event.UserDisconnectEvent;
 import com.github.retrooper.packetevents.event.UserLoginEvent;
 import com.github.retrooper.packetevents.protocol.entity.type.EntityTypes;
+import com.github.retrooper.packetevents.protocol.packettype.PacketType;
+import com.github.retrooper.packetevents.protocol.packettype.PacketTypeCommon;
 import com.github.retrooper.packetevents.protocol.player.User;
 import com.github.retrooper.packetevents.protocol.world.Location;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSpawnEntity;
-import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSetPassengers;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSpawnPlayer;
 import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
 import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
 import com.github.retrooper.packetevents.util.Vector3f;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerDestroyEntities;
-import io.github.retrooper.packetevents.util.SpigotConversionUtil;
+import com.sagecraft.BubbleSettings.SliceSet;
 import io.github.retrooper.packetevents.util.SpigotReflectionUtil;
-import me.clip.placeholderapi.PlaceholderAPI;
 import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.minimessage.MiniMessage;
 import org.bukkit.Bukkit;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
-import org.bukkit.scheduler.BukkitTask;
 
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 
 /**
  * 基于PacketEvents的聊天气泡管理器
  * 简化版本，专注于核心功能
  */
-public class PacketEventsBubbleManager implements PacketListener {
+public class PacketEventsBubbleManager implements PacketListener, BubbleService {
     
     private final JavaPlugin P;
-    private final MiniMessage mm = MiniMessage.miniMessage();
     
     // Display / TextDisplay 元数据索引（根据Minecraft Wiki）
+    private static final int META_INTERP_DELAY  = 8;  // int 插值开始延迟（写入即触发新一段插值）
+    private static final int META_INTERP_TICKS  = 9;  // int 变换插值时长
     private static final int META_TRANSLATION   = 11; // Vector3f 本地位移
     private static final int META_SCALE         = 12; // Vector3f 缩放
     private static final int META_BILLBOARD     = 15; // byte: 0 FIXED, 3 CENTER
@@ -51,413 +59,1397 @@ public class PacketEventsBubbleManager implements PacketListener {
     
     // 动画参数
     private static final int BUBBLE_ENTER_TICKS = 4;
-    private static final int BUBBLE_EXIT_TICKS = 4;
     private static final float TARGET_SCALE = 1.0f;
     private static final float START_SCALE = 0.05f;
     private static final float END_SCALE = 0.01f;
+    // 原地更新时的"弹跳"：瞬间放大到 PULSE_SCALE，再在 PULSE_TICKS 内回到 TARGET_SCALE
+    private static final float PULSE_SCALE = 1.12f;
+    private static final int PULSE_TICKS = 3;
+    // 堆叠：贴图像素到方块的换算（文本展示 1px = 1/40 格）、气泡间距、上移动画时长
+    private static final float PX_TO_BLOCK = 0.025f;
+    private static final float STACK_GAP = 0.05f;
+    private static final int STACK_MOVE_TICKS = 3;
     private static final boolean FADE_WITH_SCALE = true;
+    // HOLD 期间刷新观察者集合的间隔
+    private static final int VIEWER_REFRESH_TICKS = 10;
+    // 入场前等待工作线程排入生成包的最长 tick 数（工作线程积压时不至于卡住动画）
+    private static final int SPAWN_WAIT_TICKS = 5;
+    // 追踪转储文件名里的时间
+    private static final java.time.format.DateTimeFormatter TRACE_FILE_TIME =
+            java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
     
-    // player -> 气泡实体信息 [bg, text, tail]
-    private final Map<UUID, BubbleInfo[]> playerBubbles = new ConcurrentHashMap<>();
-    // player -> 正在运行的动画任务
-    private final Map<UUID, List<BukkitTask>> runningTasks = new ConcurrentHashMap<>();
+    // 编译后的配置快照，/cb reload 时整体替换
+    private volatile BubbleSettings settings;
+    // 背景 / tail 行成品缓存，随配置一起重建
+    private volatile BackgroundCache backgroundCache;
+    // IA 字形图片名 -> 字符，排版与背景拼接无锁读取
+    private final GlyphIndex glyphIndex = new GlyphIndex();
+    
+    // player -> 存活气泡（实体信息 [bg, text, tail] + 生命周期）
+    private final Map<UUID, Bubble> playerBubbles = new ConcurrentHashMap<>();
+    // 每个说话者的消息队列，以及本 tick 有待处理消息的队列
+    private final Map<UUID, SpeakerQueue> queues = new ConcurrentHashMap<>();
+    private final Queue<SpeakerQueue> dirtySpeakers = new ConcurrentLinkedQueue<>();
+    // 其他插件经 BubbleService 提交的请求（多生产者，全局 tick 单消费者）
+    private final Queue<BubbleRequest> requests = new ConcurrentLinkedQueue<>();
+    // 执行后端：气泡分区与驱动任务（Paper 主线程单分区 / Folia 按区段分区）
+    private final BubbleExecution execution;
+    // 按区块分桶的玩家索引，用于计算每个气泡的观察者
+    private final ViewerGrid viewerGrid = new ViewerGrid();
+    // 气泡实体 id / UUID 回收池
+    private final EntityIdPool idPool;
+    // 客户端实体可见性镜像（跟随原版追踪器的生成 / 销毁）
+    private final EntityTracker tracker = new EntityTracker();
+    // 说话者实体 id -> 存活气泡，供发送事件里快速查找
+    private final Map<Integer, Bubble> bubblesBySpeaker = new ConcurrentHashMap<>();
+    // 载具实体 id -> 观察者 -> 最近一次给他挂上的气泡实体 id（netty 线程据此改写服务器自己的 SET_PASSENGERS）
+    private final Map<Integer, Map<UUID, int[]>> mounted = new ConcurrentHashMap<>();
+    // 排版 / 发包工作线程（池队列里每个串行通道最多一个任务，排队上限由 workers 控制）
+    private final ExecutorService workerPool;
+    // 按说话者 / 锚点切分的串行通道：同一个 key 的排版与发包按提交顺序依次执行
+    private final SerialLanes workers;
+    // API 批次共用一个通道：相邻两批按顺序登记，同一锚点的新请求不会被旧的覆盖
+    private static final Object API_LANE = new Object();
+    // 计数器与各阶段耗时，/cb stats 展示
+    private final BubbleMetrics metrics = new BubbleMetrics();
+    // 发包路径的调试追踪（默认关闭，/cb trace on 打开）
+    private final TraceRing trace;
     
     public PacketEventsBubbleManager(JavaPlugin plugin) {
+        this(plugin, SpigotReflectionUtil::generateEntityId);
+    }
+    
+    /** entityIds：新实体 id 的来源；脱离服务器运行（压测模拟器）时传入自己的计数器 */
+    PacketEventsBubbleManager(JavaPlugin plugin, IntSupplier entityIds) {
         this.P = plugin;
+        this.idPool = new EntityIdPool(256, entityIds);
+        this.settings = BubbleSettings.compile(plugin, glyphIndex);
+        this.trace = new TraceRing(settings.traceSize);
+        // 每个分区自带时间轮、出站批次与元数据账本（差分时 INTERP_DELAY 每次都发）
+        BubbleExecution.RegionFactory regions = (section, world, cx, cz) -> new BubbleRegion(
+                plugin, section, world, cx, cz, this::stepBubble, this::endOfTick, metrics, viewerGrid, META_INTERP_DELAY);
+        this.execution = BubbleExecution.foliaRequested(settings.execution)
+                ? new FoliaExecution(plugin, regions, settings.regionShift, this::drainQueues)
+                : new PaperExecution(plugin, regions);
+        this.backgroundCache = new BackgroundCache(settings.backgroundCacheSize);
+        final int lanes = Math.max(1, settings.workerThreads) * 16;
+        this.workerPool = newWorkerPool(settings.workerThreads);
+        this.workers = new SerialLanes(workerPool, lanes, settings.workerQueue, plugin.getLogger());
     }
     
     /**
-     * 处理玩家聊天事件，创建聊天气泡
+     * 池队列里最多只有每个串行通道各一个任务，排队上限由 {@link SerialLanes} 按 worker-queue 控制；
+     * 这里的队列不会满，也就不需要拒绝策略
      */
-    public void onChat(Player player, String rawMessage) {
-        final FileConfiguration c = P.getConfig();
-        if (!c.getBoolean("bubble.enabled", true)) return;
-        
-        // 预处理消息
-        final String preprocessed = preprocessEmojiToIA(rawMessage);
-        final String cleaned = strip(preprocessed);
-        
-        // 处理文本换行
-        final int innerPxDefault = c.getInt("bubble.inner-px", 140);
-        final boolean autoWrap = c.getBoolean("bubble.auto-wrap", true);
+    private static ExecutorService newWorkerPool(int threads) {
+        final AtomicInteger seq = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "ChatBubble-Worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        int n = Math.max(1, threads);
+        return new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), factory);
+    }
+    
+    /**
+     * 重新编译配置快照并原子替换；存活气泡和驱动任务保持不动，
+     * 新配置从下一条消息开始生效
+     */
+    public void reload() {
+        BubbleSettings cfg = BubbleSettings.compile(P, glyphIndex);
+        this.settings = cfg;
+        this.backgroundCache = new BackgroundCache(cfg.backgroundCacheSize);
+        prewarmBackgrounds(cfg);
+    }
+    
+    /** 启动驱动任务 */
+    public void start() {
+        prewarmBackgrounds(settings);
+        execution.start();
+    }
+    
+    /** 字形索引（由 {@link ItemsAdderGlyphs} 灌入） */
+    GlyphIndex glyphIndex() {
+        return glyphIndex;
+    }
+    
+    /** 字形索引已替换：按新字符重建背景缓存（任意线程调用，缓存整体替换） */
+    public void glyphsReloaded() {
+        BubbleSettings cfg = settings;
+        this.backgroundCache = new BackgroundCache(cfg.backgroundCacheSize);
+        prewarmBackgrounds(cfg);
+    }
+    
+    /** 背景缓存（供统计展示命中率） */
+    BackgroundCache backgroundCache() {
+        return backgroundCache;
+    }
+    
+    /** 存活气泡数（含堆叠的旧气泡）；各分区汇总后交给 done */
+    void liveBubbles(java.util.function.IntConsumer done) {
+        collectLive(live -> done.accept(live[0]));
+    }
+    
+    /**
+     * 在各分区自己的线程上数出 [存活气泡, 观察者, 静态观察者, 单行文字观察者, 时间轮]，
+     * 全部分区回报后在最后回报的那个线程上交给 done（Paper 下就在当前 tick 内）
+     */
+    private void collectLive(java.util.function.Consumer<int[]> done) {
+        final List<BubbleRegion> regions = new ArrayList<>(execution.regions());
+        final java.util.concurrent.atomic.AtomicIntegerArray live = new java.util.concurrent.atomic.AtomicIntegerArray(5);
+        final AtomicInteger pending = new AtomicInteger(regions.size() + 1);
+        final Runnable arrive = () -> {
+            if (pending.decrementAndGet() != 0) return;
+            int[] out = new int[live.length()];
+            for (int i = 0; i < out.length; i++) out[i] = live.get(i);
+            done.accept(out);
+        };
+        for (BubbleRegion r : regions) {
+            execution.execute(r, () -> {
+                // 存活气泡都挂在所在分区的时间轮上：只看本分区的，不碰别的线程的观察者表
+                r.wheel.forEach(b -> {
+                    live.incrementAndGet(0);
+                    live.addAndGet(1, b.viewers.size());
+                    for (Bubble.Lod lod : b.lods.values()) live.incrementAndGet(lod == Bubble.Lod.STATIC ? 2 : 3);
+                });
+                live.addAndGet(4, r.wheel.size());
+                arrive.run();
+            });
+        }
+        arrive.run();
+    }
+    
+    /** /cb stats：累计计数与耗时 + 当前存活数量；各分区汇总后交给 done（可能在分区线程上调用） */
+    public void stats(java.util.function.Consumer<List<String>> done) {
+        collectLive(live -> done.accept(statsLines(live)));
+    }
+    
+    private List<String> statsLines(int[] live) {
+        final int wheel = live[4];
+        final BackgroundCache cache = backgroundCache;
+        List<String> out = new ArrayList<>(metrics.report());
+        out.add("执行后端: " + execution.name());
+        out.add("追踪: " + (trace.enabled() ? "开" : "关") + "，累计 " + trace.recorded() + " 条（缓冲 " + trace.capacity() + "）");
+        out.add("存活气泡: " + live[0] + "，观察者(累计每气泡): " + live[1]
+                + "，时间轮: " + wheel + "，待处理说话者: " + dirtySpeakers.size()
+                + "，工作队列: " + workers.queued() + "/" + settings.workerQueue);
+        out.add("分级观察者: 静态 " + live[2] + "，单行文字 " + live[3] + (settings.lodEnabled ? "" : "（未启用）"));
+        out.add(String.format("背景缓存: %d 项，命中率 %.1f%%，实体 id 池: %d",
+                cache.size(), cache.hitRate() * 100, idPool.size()));
+        final MessageTemplate template = settings.template;
+        out.add(String.format("文本缓存: %d 项，命中率 %.1f%%（%s）",
+                template.size(), template.hitRate() * 100, template.precompiled() ? "预编译模板" : "逐行解析"));
+        out.add(glyphIndex.ready()
+                ? "字形索引: " + glyphIndex.size() + " 个名字"
+                : "字形索引: 未加载（表情与背景字形经 PlaceholderAPI 解析）");
+        return out;
+    }
+    
+    /** /cb stats reset */
+    public void resetStats() {
+        metrics.reset();
+    }
+    
+    /** /cb trace on|off：开关发包路径的调试追踪 */
+    public void tracing(boolean on) {
+        trace.enable(on);
+    }
+    
+    /**
+     * /cb trace dump：在异步线程把追踪缓冲区写到 plugins/ChatBubble/traces/ 下，
+     * 完成后把结果（文件路径或错误）交给 done（异步线程调用）
+     */
+    public void dumpTrace(java.util.function.Consumer<String> done) {
+        final java.nio.file.Path file = P.getDataFolder().toPath().resolve("traces")
+                .resolve("trace-" + java.time.LocalDateTime.now().format(TRACE_FILE_TIME) + ".tsv");
+        Bukkit.getAsyncScheduler().runNow(P, t -> {
+            try {
+                int n = trace.dump(file);
+                done.accept("已写出 " + n + " 条追踪记录: " + file);
+            } catch (java.io.IOException e) {
+                done.accept("写出追踪记录失败: " + e.getMessage());
+            }
+        });
+    }
+    
+    /** 停止驱动任务并清掉所有存活气泡 */
+    public void shutdown() {
+        execution.stop();
+        workerPool.shutdownNow();
+        // 驱动任务已停，不再有分区线程：直接在当前线程清理并写出销毁包
+        for (UUID id : new ArrayList<>(playerBubbles.keySet())) {
+            Bubble head = playerBubbles.remove(id);
+            if (head != null) cleanupChain(head);
+        }
+        for (BubbleRegion r : execution.regions()) {
+            r.outbound.flush(Integer.MAX_VALUE, Integer.MAX_VALUE);
+            r.flushReleased(idPool::release);
+            r.outbound.clear();
+            r.ledger.clear();
+        }
+        viewerGrid.clear();
+        queues.clear();
+        dirtySpeakers.clear();
+        requests.clear();
+        tracker.clear();
+        bubblesBySpeaker.clear();
+        mounted.clear();
+    }
+    
+    /** 玩家进服 / 跨区块 / 传送 / 换世界时更新空间索引 */
+    public void trackPlayer(Player player, org.bukkit.Location to) {
+        viewerGrid.update(player, to);
+        // 说话者进入了另一个分区：气泡链跟过去（Paper 只有一个分区，不会发生）
+        final Bubble head = playerBubbles.get(player.getUniqueId());
+        if (head == null || to.getWorld() == null) return;
+        final BubbleRegion target = execution.regionFor(to);
+        if (target != head.region) execution.execute(head.region, () -> migrate(head, target));
+    }
+    
+    /** 玩家离线：移出空间索引，并从所有气泡的观察者里剔除 */
+    public void untrackPlayer(Player player) {
+        viewerGrid.remove(player);
+        forgetViewer(player.getUniqueId());
+        User user = PacketEvents.getAPI().getPlayerManager().getUser(player);
+        for (BubbleRegion r : execution.regions()) r.outbound.discard(user);
+    }
+    
+    /** 一条消息排版后的成品：三层实体的文本 */
+    private static final class BubbleContent {
+        final Component[] layers;
+        /** 远处观察者看到的单行文本（首行，多行时接省略号） */
+        final Component farText;
+        /** 气泡高度（方块），堆叠时用来把旧气泡往上推 */
+        final float height;
         
-        List<String> lines = autoWrap
-                ? wrapByPxRespectingNewlinesScaled(cleaned, innerPxDefault, 1.0)
-                : splitByNewlines(cleaned);
+        BubbleContent(Component background, Component text, Component tail, Component farText, float height) {
+            this.layers = new Component[]{background, text, tail};
+            this.farText = farText;
+            this.height = height;
+        }
+    }
+    
+    /** 主线程上取到的最小 Bukkit 状态：生成点、载具实体 id、观察者 */
+    private static final class SpeakerSnapshot {
+        final Location head;
+        final int entityId;
+        final String name;
+        final Collection<User> viewers;
         
-        // 限制最大行数
-        final int maxLines = Math.max(1, c.getInt("bubble.max-lines", 3));
-        final String ellipsis = c.getString("bubble.ellipsis", "...");
-        if (lines.size() > maxLines) {
-            lines = hardCapReplaceLastChar(lines, maxLines, innerPxDefault, 1.0, ellipsis);
+        SpeakerSnapshot(Location head, int entityId, String name, Collection<User> viewers) {
+            this.head = head;
+            this.entityId = entityId;
+            this.name = name;
+            this.viewers = viewers;
+        }
+    }
+    
+    /**
+     * 处理玩家聊天事件（任意线程可调用）：只入该说话者的队列，
+     * 由驱动任务每 tick 按策略和令牌桶取出，一个说话者每 tick 最多一次可见更新
+     */
+    public void onChat(Player player, String rawMessage) {
+        final BubbleSettings cfg = settings;
+        if (!cfg.enabled) return;
+        enqueue(player, ChatRuns.plain(rawMessage), cfg);
+    }
+    
+    /**
+     * Paper AsyncChatEvent 的消息组件（聊天线程）：遍历一次组件树展开成样式段后入队，
+     * 之后的排版与测量直接按段进行，其他聊天插件加上的格式原样保留
+     */
+    public void onChat(Player player, Component message) {
+        final BubbleSettings cfg = settings;
+        if (!cfg.enabled) return;
+        enqueue(player, ChatRuns.flatten(message, cfg.keepChatFormat), cfg);
+    }
+    
+    private void enqueue(Player player, ChatRuns message, BubbleSettings cfg) {
+        metrics.messagesReceived.increment();
+        SpeakerQueue q = queues.computeIfAbsent(player.getUniqueId(), id -> new SpeakerQueue(player));
+        int keep = cfg.queuePolicy == SpeakerQueue.Policy.STACK ? cfg.stackSize
+                 : cfg.queuePolicy == SpeakerQueue.Policy.MERGE ? cfg.maxLines : 1;
+        if (q.offer(message, keep)) dirtySpeakers.add(q);
+    }
+    
+    /**
+     * 每 tick（Paper 主线程 / Folia 全局区域）：每个有待处理消息的说话者取一次令牌、合成一次更新。
+     * 工作队列已满时本 tick 不再接新工作：消息留在各自的说话者队列里，下一 tick 再取
+     */
+    private void drainQueues() {
+        final BubbleSettings cfg = settings;
+        final long tick = execution.now();
+        for (int n = dirtySpeakers.size(); n > 0; n--) {
+            if (workers.saturated()) {
+                metrics.workerDeferred.increment();
+                break;
+            }
+            SpeakerQueue q = dirtySpeakers.poll();
+            if (q == null) break;
+            if (!q.player.isOnline()) {
+                queues.remove(q.player.getUniqueId(), q);
+                continue;
+            }
+            if (cfg.queuePolicy == SpeakerQueue.Policy.MERGE && !playerBubbles.containsKey(q.player.getUniqueId())) {
+                q.resetShown();
+            }
+            ChatRuns message = q.take(tick, cfg);
+            if (message != null) dispatch(q.player, message, cfg);
+            if (q.settle()) dirtySpeakers.add(q);
+        }
+        drainRequests(cfg);
+    }
+    
+    // ---- BubbleService ----
+    
+    @Override
+    public void submit(BubbleRequest request) {
+        if (!settings.enabled) return;
+        metrics.apiRequests.increment();
+        requests.add(request);
+    }
+    
+    @Override
+    public void submitAll(Collection<BubbleRequest> batch) {
+        if (!settings.enabled || batch.isEmpty()) return;
+        metrics.apiRequests.add(batch.size());
+        requests.addAll(batch);
+    }
+    
+    @Override
+    public void clear(org.bukkit.entity.Entity entity) {
+        clear(entity.getUniqueId());
+    }
+    
+    @Override
+    public void clear(UUID key) {
+        cleanupPlayer(key);
+    }
+    
+    /**
+     * 每 tick 取出最多 api-max-per-tick 个 API 请求：同一锚点只保留最后一个，
+     * 整批在一个工作线程任务里排版；实体锚点各自回到实体所属线程登记（Folia 下实体只能在那里读），
+     * 固定位置按分区各投递一次登记任务
+     */
+    private void drainRequests(BubbleSettings cfg) {
+        if (requests.isEmpty()) return;
+        // 工作队列已满：请求留在提交队列里，下一 tick 再取
+        if (workers.saturated()) {
+            metrics.workerDeferred.increment();
+            return;
+        }
+        final Map<UUID, BubbleRequest> batch = new LinkedHashMap<>();
+        for (int n = cfg.apiMaxPerTick; n > 0; n--) {
+            BubbleRequest req = requests.poll();
+            if (req == null) break;
+            batch.put(req.anchor.key, req);
         }
+        metrics.messagesProcessed.add(batch.size());
+        workers.execute(API_LANE, () -> {
+            final Map<BubbleRegion, List<Runnable>> byRegion = new LinkedHashMap<>();
+            for (BubbleRequest req : batch.values()) {
+                final BubbleContent content;
+                try {
+                    // 只用构建锚点时读好的名字，锚点是否还在由 showBubble 在所属线程上判断
+                    content = layoutMessage(null, req.anchor.name(), ChatRuns.flatten(req.text, true), cfg, req.style.template);
+                } catch (Exception e) {
+                    P.getLogger().warning("气泡排版失败: " + e.getMessage());
+                    continue;
+                }
+                final Runnable show = () -> showBubble(req.anchor, content, cfg, req);
+                if (req.anchor.entity != null) {
+                    execution.runFor(req.anchor.entity, show);
+                } else {
+                    byRegion.computeIfAbsent(execution.regionFor(req.anchor.location()), k -> new ArrayList<>()).add(show);
+                }
+            }
+            for (Map.Entry<BubbleRegion, List<Runnable>> e : byRegion.entrySet()) {
+                final List<Runnable> shows = e.getValue();
+                e.getKey().post(() -> {
+                    for (Runnable show : shows) show.run();
+                });
+            }
+        });
+    }
+    
+    /** 分区每 tick 末尾：全局分区先处理消息队列（Folia 下由全局区域处理），再写出本分区的出站批次 */
+    private void endOfTick(BubbleRegion region) {
+        if (region.isGlobal()) drainQueues();
+        final BubbleSettings cfg = settings;
+        region.outbound.flush(cfg.viewerBudgetPackets, cfg.viewerBudgetBytes);
+        region.flushReleased(idPool::release);
+    }
+    
+    /**
+     * 分三段：工作线程排版 + 构建组件 → 说话者所在线程读位置/蹲下/实体 id/观察者并登记动画
+     * → 工作线程把生成包排进分区的出站批次
+     */
+    private void dispatch(Player player, ChatRuns message, BubbleSettings cfg) {
+        metrics.messagesProcessed.increment();
+        workers.execute(player.getUniqueId(), () -> {
+            final BubbleContent content;
+            try {
+                content = layoutMessage(player, player.getName(), message, cfg, true);
+            } catch (Exception e) {
+                P.getLogger().warning("气泡排版失败: " + e.getMessage());
+                return;
+            }
+            final BubbleAnchor anchor = BubbleAnchor.of(player);
+            execution.runFor(player, () -> showBubble(anchor, content, cfg, null));
+        });
+    }
+    
+    /**
+     * 排版与组件构建：只依赖配置快照，可以在工作线程执行
+     * player 只作为 PAPI 的目标（API 请求为 null）；template 为 false 时组件消息不套模板
+     */
+    private BubbleContent layoutMessage(Player player, String name, ChatRuns message, BubbleSettings cfg, boolean template) {
+        final BubbleEvents.Layout event = new BubbleEvents.Layout();
+        event.begin();
+        final long started = System.nanoTime();
+        // 单遍完成：去颜色码、表情记号、MiniMessage 转义（组件消息不转义，按样式段测量）、按像素换行、省略号截断
+        final TextLayout.Result layout = cfg.layout.layout(message);
+        final List<String> lines = layout.lines;
         
-        // 创建文本组件
-        final String template = c.getString("bubble.mini-message", "<white>%message%</white>");
-        final boolean usePapiText = c.getBoolean("bubble.use-papi-for-text", false);
+        // 创建文本组件：预编译模板只插入用户文本，相同的行直接命中缓存
         final List<Component> parts = new ArrayList<>(lines.size());
         
-        for (String line : lines) {
-            String safe = line.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
-            String mmText = template.replace("%message%", safe);
-            if (usePapiText) mmText = PlaceholderAPI.setPlaceholders(player, mmText);
-            parts.add(mm.deserialize(mmText));
+        final long renderStart = System.nanoTime();
+        if (layout.segments == null) {
+            for (String safe : lines) {
+                parts.add(cfg.template.render(player, safe));
+            }
+        } else {
+            // 组件消息：按样式段直接拼回组件，不再经过 MiniMessage
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                Component styled = message.line(line, layout.segments.get(i));
+                parts.add(template ? cfg.template.render(player, line, styled) : styled);
+            }
         }
+        final long renderNanos = System.nanoTime() - renderStart;
         
         final Component finalText = Component.join(Component.newline(), parts);
+        final Component farText = parts.isEmpty() ? Component.empty()
+                : parts.size() == 1 ? parts.get(0) : parts.get(0).append(Component.text(cfg.ellipsis));
         
         // 3) 背景宽度 = 最长行"缩放宽度" + 内边距
-        final int maxPxScaled = lines.stream().mapToInt(s -> pxScaled(s, 1.0)).max().orElse(0);
-        final SliceSet set = loadSet(c, pickHeight(c, lines.size()));
+        final int maxPxScaled = layout.maxWidth;
+        final SliceSet set = cfg.setForLines(lines.size());
         final int fillPx = maxPxScaled + Math.max(0, set.paddingPx);
         
-        final String bgStr = threeSlice(player, fillPx, set);
-        // tail 两侧 mid 的裁剪量（可被 config 覆盖）
-        final int tailTrimPerSide = Math.max(0, c.getInt("bubble.tail-trim-per-side", 0));
-        final String tailStr = tailLineMidBothSides(player, fillPx, set, tailTrimPerSide);
+        // 背景 + tail 行：按 (高度, 重复次数, 裁剪量) 查缓存，tail 两侧 mid 的裁剪量可被 config 覆盖
+        final BackgroundCache.Entry background = background(player, fillPx, set, cfg.tailTrimPerSide);
+        
+        metrics.render.record(renderNanos);
+        metrics.layout.record(System.nanoTime() - started - renderNanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.speaker = name;
+            event.chars = message.length();
+            event.lines = lines.size();
+            event.renderNanos = renderNanos;
+            event.commit();
+        }
+        return new BubbleContent(background.background, finalText, background.tail, farText,
+                set.height * PX_TO_BLOCK + STACK_GAP);
+    }
+    
+    /**
+     * 说话者所在线程（Paper 主线程 / Folia 其区域线程）：读取最小 Bukkit 状态、登记气泡与动画，
+     * 然后把发包交回工作线程。request 为 null 表示聊天消息，否则取其存活时长与外观
+     *
+     * 气泡还活着且上一次发包已完成时走原地更新：已经看得到它的观察者只收三条 META_TEXT
+     * （可选一次"弹跳"），只有新观察者才收生成包，任何人都不会收到重复的生成包
+     */
+    private void showBubble(BubbleAnchor anchor, BubbleContent content, BubbleSettings cfg, BubbleRequest request) {
+        if (!anchor.valid()) return;
+        final BubbleRegion region = execution.regionFor(anchor.location());
+        final Bubble current = playerBubbles.get(anchor.key);
+        if (current != null && current.region != region) {
+            // 气泡链还挂在旧分区：先在旧分区线程上迁过来，再回到锚点所在线程重放
+            execution.execute(current.region, () -> {
+                migrate(current, region);
+                runFor(anchor, () -> showBubble(anchor, content, cfg, request));
+            });
+            return;
+        }
+        final BubbleStyle style = request == null ? BubbleStyle.DEFAULT : request.style;
+        final BubbleEvents.Show event = new BubbleEvents.Show();
+        event.begin();
+        final long started = System.nanoTime();
+        
+        // 获取或创建气泡实体 [bg, text, tail]；stack 策略下已有气泡时另起一个叠在下方
+        final boolean stack = request == null && cfg.queuePolicy == SpeakerQueue.Policy.STACK;
+        Bubble bubble = stack ? pushStacked(anchor.key, region) : getOrCreateBubble(anchor.key, region);
+        BubbleInfo[] bubbleInfos = bubble.infos;
+        bubble.anchor = anchor;
+        if (bubble.speakerEntityId != anchor.entityId) {
+            bubblesBySpeaker.remove(bubble.speakerEntityId, bubble);
+            bubble.speakerEntityId = anchor.entityId;
+        }
+        // 固定位置没有载具实体，不参与按实体 id 的可见性跟随
+        if (anchor.entityId >= 0) bubblesBySpeaker.put(bubble.speakerEntityId, bubble);
         
-        // 获取或创建气泡实体 [bg, text, tail]
-        BubbleInfo[] bubbleInfos = getOrCreateBubbleInfos(player);
+        // 有观察者的客户端上已经有这三个实体（按观察者记录，上一轮发包还在排队时也不会误判成全新）
+        final boolean inPlace = bubble.state != Bubble.State.DEAD && !bubble.shown.isEmpty();
+        // 退场中的气泡重新长出来；入场 / 停留中的直接换字
+        final boolean expanded = inPlace && bubble.state != Bubble.State.EXIT;
         
-        // 更新文本内容
-        bubbleInfos[0].textContent = Component.text(bgStr);   // 背景
-        bubbleInfos[1].textContent = finalText;               // 文本
-        bubbleInfos[2].textContent = Component.text(tailStr); // 尾部
+        // 更新文本内容：[背景, 文本, 尾部]
+        for (int i = 0; i < bubbleInfos.length; i++) {
+            bubbleInfos[i].textContent = content.layers[i];
+        }
         
         // 设置位置 - 只在玩家头部位置生成，yOffset通过META_TRANSLATION设置
-        final double yOffset = c.getDouble("bubble.y-offset", 0.55);
-        Location headLocation = SpigotConversionUtil.fromBukkitLocation(
-            player.getLocation().add(0, player.isSneaking() ? 1.6 : 1.9, 0)
-        );
+        bubble.yOffset = style.yOffset(cfg);
+        bubble.viewRange = style.viewRange(cfg);
+        bubble.height = content.height;
+        bubble.farText = content.farText;
+        if (bubble.older != null) restack(bubble, cfg);
         
-        // 取消旧动画任务
-        cancelRunningTasks(player.getUniqueId());
+        // 停掉旧动画（从时间轮摘除即可）
+        region.wheel.cancel(bubble);
         
-        // 发送实体到所有在线玩家
-        for (Player onlinePlayer : Bukkit.getOnlinePlayers()) {
-            User user = PacketEvents.getAPI().getPlayerManager().getUser(onlinePlayer);
-            if (user != null) {
-                spawnBubbleEntities(user, bubbleInfos, headLocation, (float)yOffset);
-                // 设置passenger关系，让实体跟随玩家
-                setPassengerRelationship(user, player, bubbleInfos);
+        // 计算观察者：只发给 view-range 内的玩家；离开范围的旧观察者直接销毁
+        // 按距离分级：FULL 走完整动画，STATIC 直接以完整大小出现，TEXT 只收一个单行文字实体
+        final Map<UUID, Bubble.Lod> lods = new HashMap<>();
+        Map<UUID, User> viewers = collectViewers(anchor, bubble.viewRange, cfg, lods);
+        destroyForLeavers(bubble, viewers);
+        final List<User> fresh = new ArrayList<>();
+        final List<User> freshStatic = new ArrayList<>();
+        final List<User> freshText = new ArrayList<>();
+        final List<User> known = new ArrayList<>();
+        final List<User> knownStatic = new ArrayList<>();
+        final List<User> knownText = new ArrayList<>();
+        final List<User> reshaped = new ArrayList<>();
+        for (Map.Entry<UUID, User> e : viewers.entrySet()) {
+            final Bubble.Lod lod = lods.getOrDefault(e.getKey(), Bubble.Lod.FULL);
+            boolean had = inPlace && bubble.shown.contains(e.getKey());
+            // 单行文字 ↔ 三层气泡换了实体组成：先销毁，再按新层级当作新观察者生成
+            if (had && (lod == Bubble.Lod.TEXT) != (bubble.lods.get(e.getKey()) == Bubble.Lod.TEXT)) {
+                reshaped.add(e.getValue());
+                had = false;
+            }
+            switch (lod) {
+                case FULL -> (had ? known : fresh).add(e.getValue());
+                case STATIC -> (had ? knownStatic : freshStatic).add(e.getValue());
+                case TEXT -> (had ? knownText : freshText).add(e.getValue());
             }
         }
+        destroyFor(bubble.region, bubbleInfos, reshaped);
+        unshow(bubble, reshaped);
+        final int viewerCount = viewers.size();
+        bubble.viewers = viewers;
+        bubble.lods = lods;
+        if (inPlace) metrics.inPlaceUpdates.increment();
         
-        // 直接启动动画
-        startBubbleAnimation(bubbleInfos, player.getUniqueId());
+        final SpeakerSnapshot snap = new SpeakerSnapshot(
+            anchor.head(), anchor.entityId, anchor.name(), fresh);
+        final float yOffset = bubble.yOffset;
+        final Component farText = content.farText;
+        // 不要动画的 API 气泡当作已展开：直接以完整大小生成
+        final boolean grown = expanded || !style.animated;
+        final boolean pulse = expanded && style.animated && cfg.updatePulse;
+        final float spawnScale = grown ? TARGET_SCALE : START_SCALE;
+        final int spawnOpacity = grown ? 255 : 0;
+        final int life = request != null && request.lifetimeTicks > 0 ? request.lifetimeTicks : cfg.lifetimeTicks;
+        
+        // 先启动动画（会重置 spawned），再把发包交给工作线程；代数用来识别被新一轮显示取代的发包任务
+        final int generation = ++bubble.generation;
+        if (pulse) startBubbleAnimation(bubble, cfg, life, PULSE_SCALE, PULSE_TICKS);
+        else if (grown) startBubbleAnimation(bubble, cfg, life, TARGET_SCALE, 0);
+        else startBubbleAnimation(bubble, cfg, life, START_SCALE, BUBBLE_ENTER_TICKS);
+        // 链上有旧气泡时所有人的乘客列表都变了；否则只有新生成的观察者需要挂载
+        final Map<List<Integer>, List<User>> mounts = anchor.entityId < 0 ? Map.of()
+                : chainMounts(bubble, bubble.older != null ? chainViewers(bubble) : concat(fresh, freshStatic, freshText));
+        // 锚点实体上原有的乘客在这里（实体所属线程）读好，工作线程只管拼进乘客列表
+        final int[] riders = anchor.riders();
+        metrics.show.record(System.nanoTime() - started);
+        event.end();
+        if (event.shouldCommit()) {
+            event.speaker = snap.name;
+            event.inPlace = inPlace;
+            event.known = known.size() + knownStatic.size() + knownText.size();
+            event.fresh = fresh.size() + freshStatic.size() + freshText.size();
+            event.commit();
+        }
+        workers.execute(anchor.key, () -> {
+            // 排队期间又来了新一轮显示：它按各观察者的生成记录重新分了新旧，本轮不再发包，
+            // 也不能把 spawned 置回 true（入场动画要等新一轮的生成包）
+            if (bubble.generation != generation) return;
+            // 同一锚点的发包任务串行：分新旧之后上一轮发包才给他们生成过的，改按换字处理
+            reclaim(bubble.shown, fresh, known);
+            reclaim(bubble.shown, freshStatic, knownStatic);
+            reclaim(bubble.shown, freshText, knownText);
+            final BubbleEvents.Emit emit = new BubbleEvents.Emit();
+            emit.begin();
+            final long emitStart = System.nanoTime();
+            final BubbleRegion out = bubble.region;
+            // 整组包在本线程攒好后一次接进各观察者的队列：分区线程的 flush 不会把生成包和它的元数据、
+            // passenger 拆到两次写出里
+            out.outbound.atomically(() -> {
+                updateBubbleText(out, known, bubbleInfos, content.layers, pulse ? PULSE_SCALE : Float.NaN);
+                // 上一轮可能还是 FULL、动画停在中途：换字时直接定在完整大小
+                updateBubbleText(out, knownStatic, bubbleInfos, content.layers, TARGET_SCALE);
+                setOpacity(out, knownStatic, bubbleInfos, 255);
+                updateFarText(out, knownText, bubbleInfos, farText);
+                spawnBubbleEntities(out, snap.viewers, bubbleInfos, content.layers, snap.head, yOffset, spawnScale, spawnOpacity);
+                spawnBubbleEntities(out, freshStatic, bubbleInfos, content.layers, snap.head, yOffset, TARGET_SCALE, 255);
+                spawnFarText(out, freshText, bubbleInfos, farText, snap.head, yOffset);
+                // 设置passenger关系，让实体跟随玩家 / 锚点实体（整条链一起挂）
+                mount(out, snap.entityId, riders, mounts);
+            });
+            // 生成包已在队列里之后才放行入场动画，动画帧排在它后面
+            if (bubble.generation == generation) bubble.spawned = true;
+            // 排队期间气泡已被清掉（玩家下线等）：补一个销毁，避免留下幽灵实体
+            if (bubble.state == Bubble.State.DEAD) {
+                destroyFor(out, bubbleInfos, snap.viewers);
+                destroyFor(out, bubbleInfos, freshStatic);
+                destroyFor(out, bubbleInfos, freshText);
+            } else {
+                markShown(bubble, snap.viewers);
+                markShown(bubble, freshStatic);
+                markShown(bubble, freshText);
+            }
+            metrics.emit.record(System.nanoTime() - emitStart);
+            emit.end();
+            if (emit.shouldCommit()) {
+                emit.speaker = snap.name;
+                emit.viewers = viewerCount;
+                emit.commit();
+            }
+        });
+    }
+    
+    /** fresh 中已有生成记录的观察者挪到 known */
+    private static void reclaim(Set<UUID> shown, List<User> fresh, List<User> known) {
+        if (shown.isEmpty()) return;
+        for (Iterator<User> it = fresh.iterator(); it.hasNext(); ) {
+            User u = it.next();
+            if (shown.contains(u.getUUID())) {
+                known.add(u);
+                it.remove();
+            }
+        }
+    }
+    
+    /** 这些观察者的生成包已排进批次 */
+    private static void markShown(Bubble bubble, Collection<User> users) {
+        for (User u : users) bubble.shown.add(u.getUUID());
+    }
+    
+    /** 这些观察者的实体已销毁 */
+    private static void unshow(Bubble bubble, Collection<User> users) {
+        for (User u : users) bubble.shown.remove(u.getUUID());
+    }
+    
+    /**
+     * 获取或创建气泡 [bg, text, tail]，实体 id / UUID 取自回收池
+     */
+    private Bubble getOrCreateBubble(UUID key, BubbleRegion region) {
+        return playerBubbles.computeIfAbsent(key, uuid -> new Bubble(uuid, idPool.acquire(), region));
+    }
+    
+    /** stack 策略：已有存活气泡时新建一个作为链头，旧的留在链上 */
+    private Bubble pushStacked(UUID key, BubbleRegion region) {
+        Bubble head = playerBubbles.get(key);
+        if (head == null) return getOrCreateBubble(key, region);
+        Bubble b = new Bubble(key, idPool.acquire(), region);
+        b.older = head;
+        head.newer = b;
+        playerBubbles.put(b.owner, b);
+        return b;
+    }
+    
+    /** 把链上的旧气泡依次推到新气泡上方；超出 stack-size 的提前退场 */
+    private void restack(Bubble head, BubbleSettings cfg) {
+        float y = head.yOffset + head.height;
+        int count = 1;
+        for (Bubble b = head.older; b != null; b = b.older) {
+            if (++count > cfg.stackSize) {
+                forceExit(b);
+            } else if (b.yOffset != y) {
+                moveBubble(b, y);
+            }
+            y += b.height;
+        }
+    }
+    
+    /** 入场 / 停留中的气泡直接转入退场 */
+    private void forceExit(Bubble b) {
+        if (b.state != Bubble.State.ENTER && b.state != Bubble.State.HOLD) return;
+        b.region.wheel.cancel(b);
+        b.enter(Bubble.State.EXIT);
+        b.region.wheel.schedule(b, 1);
+    }
+    
+    /** 改变气泡的本地 Y 偏移；插值模式下客户端平滑移动 */
+    private void moveBubble(Bubble b, float yOffset) {
+        b.yOffset = yOffset;
+        if (b.viewers.isEmpty()) return;
+        // 单行文字的观察者只有文字实体
+        final Collection<User> layered = layeredViewers(b);
+        for (int i = 0; i < b.infos.length; i++) {
+            List<EntityData<?>> md = new ArrayList<>(3);
+            if (b.interpolated) {
+                md.add(new EntityData<>(META_INTERP_DELAY, EntityDataTypes.INT, 0));
+                md.add(new EntityData<>(META_INTERP_TICKS, EntityDataTypes.INT, STACK_MOVE_TICKS));
+            }
+            md.add(new EntityData<>(META_TRANSLATION, EntityDataTypes.VECTOR3F, new Vector3f(0f, yOffset, layerDepth(i))));
+            sendMeta(b.region, b.infos[i].entityId, md, i == 1 ? b.viewers.values() : layered, false);
+        }
+    }
+    
+    /**
+     * 气泡结束：从堆叠链上摘下（链头交给下一个旧气泡），
+     * 生成包已经发出过的才回收 id（否则可能还有排队中的生成包），并且要等本分区写出销毁包之后
+     */
+    private void retire(Bubble bubble) {
+        Bubble newer = bubble.newer, older = bubble.older;
+        if (newer != null) newer.older = older;
+        if (older != null) older.newer = newer;
+        bubble.newer = bubble.older = null;
+        bubblesBySpeaker.remove(bubble.speakerEntityId, bubble);
+        if (playerBubbles.get(bubble.owner) == bubble) {
+            if (older != null) {
+                playerBubbles.put(bubble.owner, older);
+                bubblesBySpeaker.put(older.speakerEntityId, older);
+            } else {
+                playerBubbles.remove(bubble.owner, bubble);
+            }
+        }
+        bubble.enter(Bubble.State.DEAD);
+        if (bubble.spawned) bubble.region.releaseAfterFlush(bubble.infos);
+        // 链上还有其他气泡：按剩下的链重新发一次乘客列表
+        final Bubble rest = newer != null ? chainHead(newer) : older;
+        if (rest != null && rest.anchor != null && rest.anchor.entityId >= 0) {
+            mount(rest.region, rest.anchor.entityId, rest.anchor.riders(), chainMounts(rest, chainViewers(rest)));
+        } else if (rest == null && !playerBubbles.containsKey(bubble.owner)) {
+            mounted.remove(bubble.speakerEntityId);
+        }
+    }
+    
+    /** 堆叠链的链头（最新的气泡） */
+    private static Bubble chainHead(Bubble b) {
+        while (b.newer != null) b = b.newer;
+        return b;
+    }
+    
+    /** 整条链上所有气泡的观察者（去重） */
+    private static Collection<User> chainViewers(Bubble head) {
+        if (head.older == null) return head.viewers.values();
+        Map<UUID, User> all = new HashMap<>();
+        for (Bubble b = head; b != null; b = b.older) all.putAll(b.viewers);
+        return all.values();
+    }
+    
+    @SafeVarargs
+    private static List<User> concat(List<User>... lists) {
+        List<User> out = new ArrayList<>();
+        for (List<User> l : lists) out.addAll(l);
+        return out;
     }
     
     /**
-     * 获取或创建气泡信息 [bg, text, tail]
+     * SET_PASSENGERS 会整体替换载具在客户端上的乘客列表：按观察者汇总整条链上他看得到的气泡实体
+     * （单行文字层级只有文字实体），列表相同的观察者共用一个包。分区线程调用
      */
-    private BubbleInfo[] getOrCreateBubbleInfos(Player player) {
-        return playerBubbles.computeIfAbsent(player.getUniqueId(), uuid -> {
-            BubbleInfo bg = new BubbleInfo(SpigotReflectionUtil.generateEntityId(), UUID.randomUUID());
-            BubbleInfo text = new BubbleInfo(SpigotReflectionUtil.generateEntityId(), UUID.randomUUID());
-            BubbleInfo tail = new BubbleInfo(SpigotReflectionUtil.generateEntityId(), UUID.randomUUID());
-            return new BubbleInfo[]{bg, text, tail};
+    private static Map<List<Integer>, List<User>> chainMounts(Bubble head, Collection<User> users) {
+        if (users.isEmpty()) return Map.of();
+        Map<List<Integer>, List<User>> out = new HashMap<>();
+        for (User u : users) {
+            final UUID id = u.getUUID();
+            List<Integer> ids = new ArrayList<>(head.infos.length);
+            for (Bubble b = head; b != null; b = b.older) {
+                if (b.state == Bubble.State.DEAD || !b.viewers.containsKey(id)) continue;
+                for (BubbleInfo info : b.lods.get(id) == Bubble.Lod.TEXT ? farInfos(b.infos) : b.infos) ids.add(info.entityId);
+            }
+            out.computeIfAbsent(ids, k -> new ArrayList<>()).add(u);
+        }
+        return out;
+    }
+    
+    /**
+     * 按 chainMounts 的分组发送乘客列表；riders 为锚点实体在服务器上的乘客，排在气泡前面一起发。
+     * 每个观察者挂了哪些气泡实体记进 {@link #mounted}，服务器自己发的 SET_PASSENGERS 据此补上气泡
+     */
+    private void mount(BubbleRegion out, int vehicleId, int[] riders, Map<List<Integer>, List<User>> mounts) {
+        if (vehicleId < 0 || mounts.isEmpty()) return;
+        final Map<UUID, int[]> byViewer = mounted.computeIfAbsent(vehicleId, k -> new ConcurrentHashMap<>());
+        for (Map.Entry<List<Integer>, List<User>> e : mounts.entrySet()) {
+            int[] bubbles = new int[e.getKey().size()];
+            for (int i = 0; i < bubbles.length; i++) bubbles[i] = e.getKey().get(i);
+            for (User u : e.getValue()) {
+                if (bubbles.length == 0) byViewer.remove(u.getUUID());
+                else byViewer.put(u.getUUID(), bubbles);
+            }
+            // 空列表会清掉载具自己的乘客，不发
+            if (bubbles.length == 0) continue;
+            int[] ids = Arrays.copyOf(riders, riders.length + bubbles.length);
+            System.arraycopy(bubbles, 0, ids, riders.length, bubbles.length);
+            setPassengerRelationship(out, e.getValue(), vehicleId, ids);
+        }
+    }
+    
+    /**
+     * 该观察者挂在载具上的气泡实体，只保留链上仍存活、他客户端上确实有的（netty 线程）；没有时返回 null
+     */
+    private int[] mountedFor(int vehicleId, UUID viewer) {
+        final Bubble head = bubblesBySpeaker.get(vehicleId);
+        final Map<UUID, int[]> byViewer = mounted.get(vehicleId);
+        if (head == null || byViewer == null) return null;
+        final int[] ids = byViewer.get(viewer);
+        if (ids == null) return null;
+        int[] out = new int[ids.length];
+        int n = 0;
+        for (int id : ids) {
+            if (liveFor(head, viewer, id)) out[n++] = id;
+        }
+        return n == 0 ? null : Arrays.copyOf(out, n);
+    }
+    
+    private static boolean liveFor(Bubble head, UUID viewer, int entityId) {
+        for (Bubble b = head; b != null; b = b.older) {
+            if (b.state == Bubble.State.DEAD || !b.shown.contains(viewer)) continue;
+            for (BubbleInfo info : b.infos) {
+                if (info.entityId == entityId) return true;
+            }
+        }
+        return false;
+    }
+    
+    /** 服务器发出的乘客列表后面补上该观察者挂着的气泡实体；已经都在（我们自己发的包）时返回 null */
+    private static int[] withBubbles(int[] passengers, int[] bubbles) {
+        int[] out = null;
+        int n = passengers.length;
+        outer:
+        for (int id : bubbles) {
+            for (int p : passengers) if (p == id) continue outer;
+            if (out == null) out = Arrays.copyOf(passengers, passengers.length + bubbles.length);
+            out[n++] = id;
+        }
+        return out == null ? null : Arrays.copyOf(out, n);
+    }
+    
+    /** 锚点在哪个线程上处理：实体走其调度器，其他锚点投递给所在分区 */
+    private void runFor(BubbleAnchor anchor, Runnable task) {
+        if (anchor.entity != null) execution.runFor(anchor.entity, task);
+        else execution.regionFor(anchor.location()).post(task);
+    }
+    
+    /**
+     * 从空间索引中取出锚点周围 range 内的观察者，非 FULL 的层级记进 lods；
+     * 玩家类型的锚点（说话者、玩家 NPC）除本人外只算客户端上确实存在该实体的玩家（跟随原版追踪器），
+     * 其他锚点只按距离
+     */
+    private Map<UUID, User> collectViewers(BubbleAnchor anchor, double range, BubbleSettings cfg, Map<UUID, Bubble.Lod> lods) {
+        Map<UUID, User> out = new HashMap<>();
+        final int speakerId = anchor.entityId;
+        final org.bukkit.Location at = anchor.location();
+        viewerGrid.forEachNear(at, lodRange(cfg, range), pl -> {
+            if (anchor.tracked && pl != anchor.entity && !tracker.canSee(pl.getUniqueId(), speakerId)) return;
+            User u = PacketEvents.getAPI().getPlayerManager().getUser(pl);
+            if (u == null) return;
+            out.put(pl.getUniqueId(), u);
+            Bubble.Lod lod = lodFor(cfg, at, pl.getUniqueId());
+            if (lod != Bubble.Lod.FULL) lods.put(pl.getUniqueId(), lod);
         });
+        return out;
+    }
+    
+    /** far-mode 为 none 时 mid 以外不显示，可视范围收窄到 mid */
+    private static double lodRange(BubbleSettings cfg, double range) {
+        return cfg.lodEnabled && !cfg.lodFarText ? Math.min(range, cfg.lodMid) : range;
+    }
+    
+    /** 观察者到锚点的水平距离对应的层级（坐标取自 ViewerGrid，不读其他区域的玩家） */
+    private Bubble.Lod lodFor(BubbleSettings cfg, org.bukkit.Location at, UUID viewer) {
+        if (!cfg.lodEnabled) return Bubble.Lod.FULL;
+        double d2 = viewerGrid.distanceSquared(at, viewer);
+        if (d2 <= cfg.lodNear * cfg.lodNear) return Bubble.Lod.FULL;
+        return d2 <= cfg.lodMid * cfg.lodMid ? Bubble.Lod.STATIC : Bubble.Lod.TEXT;
+    }
+    
+    /** 旧观察者中不在 next 里的，发送销毁包 */
+    private void destroyForLeavers(Bubble bubble, Map<UUID, User> next) {
+        if (bubble.viewers.isEmpty()) return;
+        List<User> leavers = new ArrayList<>();
+        for (Map.Entry<UUID, User> e : bubble.viewers.entrySet()) {
+            if (!next.containsKey(e.getKey())) leavers.add(e.getValue());
+        }
+        destroyFor(bubble.region, bubble.infos, leavers);
+        unshow(bubble, leavers);
     }
     
     /**
-     * 生成气泡实体 [bg, text, tail]
+     * 增量刷新观察者：新进入范围的补发生成包，离开范围的发销毁包；
+     * 层级在单行文字与三层气泡之间切换的观察者销毁后按新层级重新生成
      */
-    private void spawnBubbleEntities(User user, BubbleInfo[] bubbleInfos, Location location, float yOffset) {
-        try {
-            // 生成三个TEXT_DISPLAY实体：背景、文本、尾部
-            for (int i = 0; i < bubbleInfos.length; i++) {
-                BubbleInfo info = bubbleInfos[i];
-                
-                // 所有实体使用相同的位置，通过META_TRANSLATION设置本地偏移
-                Location entityLoc = new Location(
-                    location.getX(),
-                    location.getY(),
-                    location.getZ(),
-                    location.getYaw(),
-                    location.getPitch()
-                );
-                
-                WrapperPlayServerSpawnEntity spawnPacket = new WrapperPlayServerSpawnEntity(
-                    info.entityId,
-                    info.entityUuid,
-                    EntityTypes.TEXT_DISPLAY,
-                    entityLoc,
-                    0f, // headYaw
-                    0,  // data
-                    null // velocity
-                );
-                user.sendPacket(spawnPacket);
-                
-                // 设置实体元数据
-                // i == 0: 背景实体, i == 1: 文本实体, i == 2: 尾部实体
-                setTextDisplayMetadata(user, info.entityId, info.textContent, i, yOffset);
+    private void refreshViewers(Bubble bubble) {
+        final BubbleAnchor anchor = bubble.anchor;
+        if (anchor == null || !anchor.valid()) return;
+        final Map<UUID, Bubble.Lod> lods = new HashMap<>();
+        Map<UUID, User> next = collectViewers(anchor, bubble.viewRange, settings, lods);
+        destroyForLeavers(bubble, next);
+        List<User> newcomers = new ArrayList<>();
+        List<User> farcomers = new ArrayList<>();
+        List<User> reshaped = new ArrayList<>();
+        for (Map.Entry<UUID, User> e : next.entrySet()) {
+            final boolean far = lods.get(e.getKey()) == Bubble.Lod.TEXT;
+            if (bubble.viewers.containsKey(e.getKey())) {
+                // FULL ↔ STATIC 只改记录：HOLD 期间两者在客户端上完全一样
+                if (far == (bubble.lods.get(e.getKey()) == Bubble.Lod.TEXT)) continue;
+                reshaped.add(e.getValue());
             }
+            (far ? farcomers : newcomers).add(e.getValue());
+        }
+        destroyFor(bubble.region, bubble.infos, reshaped);
+        unshow(bubble, reshaped);
+        if (!newcomers.isEmpty() || !farcomers.isEmpty()) {
+            // 只在 HOLD 期间刷新，补发时直接用完全展开的状态
+            final Location head = anchor.head();
+            spawnBubbleEntities(bubble.region, newcomers, bubble.infos, currentLayers(bubble.infos), head, bubble.yOffset, TARGET_SCALE, 255);
+            spawnFarText(bubble.region, farcomers, bubble.infos, bubble.farText, head, bubble.yOffset);
+            markShown(bubble, newcomers);
+            markShown(bubble, farcomers);
+        }
+        bubble.viewers = next;
+        bubble.lods = lods;
+        if (anchor.entityId >= 0 && (!newcomers.isEmpty() || !farcomers.isEmpty())) {
+            // 本气泡可能在链中间：乘客列表按整条链计算
+            mount(bubble.region, anchor.entityId, anchor.riders(), chainMounts(chainHead(bubble), concat(newcomers, farcomers)));
+        }
+        // 非玩家锚点没有移动事件触发迁移：刷新时顺带检查，下一 tick 在本分区上迁走
+        if (!(anchor.entity instanceof Player) && playerBubbles.get(bubble.owner) == bubble) {
+            final BubbleRegion target = execution.regionFor(anchor.location());
+            if (target != bubble.region) bubble.region.post(() -> migrate(bubble, target));
+        }
+    }
+    
+    /**
+     * 生成气泡实体 [bg, text, tail]，初始缩放 / 透明度由调用方给出
+     * 每个生成包 / 元数据包只编码一次，再写给所有观察者
+     */
+    private void spawnBubbleEntities(BubbleRegion out, Collection<User> users, BubbleInfo[] bubbleInfos, Component[] layers,
+                                     Location location, float yOffset, float scale, int opacity) {
+        if (users.isEmpty()) return;
+        // 生成三个TEXT_DISPLAY实体：背景、文本、尾部
+        for (int i = 0; i < bubbleInfos.length; i++) {
+            spawnLayer(out, users, bubbleInfos[i], layers[i], i, location, yOffset, scale, opacity);
+        }
+    }
+    
+    /** 单行文字层级：只生成文字实体，直接以完整大小出现 */
+    private void spawnFarText(BubbleRegion out, Collection<User> users, BubbleInfo[] bubbleInfos, Component text,
+                              Location location, float yOffset) {
+        if (users.isEmpty()) return;
+        spawnLayer(out, users, bubbleInfos[1], text, 1, location, yOffset, TARGET_SCALE, 255);
+    }
+    
+    /** 生成一层实体并发送其完整元数据；layer: 0=bg, 1=tx, 2=tail */
+    private void spawnLayer(BubbleRegion out, Collection<User> users, BubbleInfo info, Component text, int layer,
+                            Location location, float yOffset, float scale, int opacity) {
+        try {
+            // 所有实体使用相同的位置，通过META_TRANSLATION设置本地偏移
+            Location entityLoc = new Location(
+                location.getX(),
+                location.getY(),
+                location.getZ(),
+                location.getYaw(),
+                location.getPitch()
+            );
+            
+            WrapperPlayServerSpawnEntity spawnPacket = new WrapperPlayServerSpawnEntity(
+                info.entityId,
+                info.entityUuid,
+                EntityTypes.TEXT_DISPLAY,
+                entityLoc,
+                0f, // headYaw
+                0,  // data
+                null // velocity
+            );
+            fanOut(out, spawnPacket, users);
             
+            trace.record(TraceRing.Kind.SPAWN, info.entityId, layer, users.size());
+            sendMeta(out, info.entityId, spawnMetadata(text, layer, yOffset, scale, opacity, settings.showShadow), users, true);
         } catch (Exception e) {
             P.getLogger().warning("生成气泡实体失败: " + e.getMessage());
         }
     }
     
     /**
-     * 设置passenger关系，让气泡实体跟随玩家
+     * 设置passenger关系，让气泡实体跟随玩家；passengerIds 是载具的完整乘客列表（见 chainMounts）
      */
-    private void setPassengerRelationship(User user, Player player, BubbleInfo[] bubbleInfos) {
+    private void setPassengerRelationship(BubbleRegion out, Collection<User> users, int playerEntityId, int[] passengerIds) {
+        if (users.isEmpty()) return;
         try {
-            // 获取玩家的实体ID
-            int playerEntityId = player.getEntityId();
-            
-            // 创建passenger实体ID数组
-            int[] passengerIds = new int[bubbleInfos.length];
-            for (int i = 0; i < bubbleInfos.length; i++) {
-                passengerIds[i] = bubbleInfos[i].entityId;
-            }
-            
-            // 发送SetPassengers包设置passenger关系
-            try {
-                // 使用PacketEvents API发送SetPassengers包
-                WrapperPlayServerSetPassengers setPassengersPacket = new WrapperPlayServerSetPassengers(playerEntityId, passengerIds);
-                user.sendPacket(setPassengersPacket);
-                
-                P.getLogger().info("成功设置玩家 " + player.getName() + " 的passenger: " + java.util.Arrays.toString(passengerIds));
-                
-            } catch (Exception e) {
-                P.getLogger().warning("发送SetPassengers包失败: " + e.getMessage());
-                e.printStackTrace();
-            }
-            
+            WrapperPlayServerSetPassengers setPassengersPacket = new WrapperPlayServerSetPassengers(playerEntityId, passengerIds);
+            fanOut(out, setPassengersPacket, users);
+            trace.record(TraceRing.Kind.PASSENGERS, playerEntityId, passengerIds.length, users.size());
         } catch (Exception e) {
             P.getLogger().warning("设置passenger关系失败: " + e.getMessage());
         }
     }
     
     /**
-     * 设置TEXT_DISPLAY实体的元数据
+     * 原地换字：只发三条 META_TEXT；pulseScale 不是 NaN 时顺带把缩放瞬间设到该值（弹跳起点）
      */
+    private void updateBubbleText(BubbleRegion out, Collection<User> users, BubbleInfo[] bubbleInfos, Component[] layers,
+                                  float pulseScale) {
+        if (users.isEmpty()) return;
+        for (int i = 0; i < bubbleInfos.length; i++) {
+            List<EntityData<?>> md = new ArrayList<>(4);
+            md.add(new EntityData<>(META_TEXT, EntityDataTypes.ADV_COMPONENT, layers[i]));
+            if (!Float.isNaN(pulseScale)) {
+                md.add(new EntityData<>(META_INTERP_DELAY, EntityDataTypes.INT, 0));
+                md.add(new EntityData<>(META_INTERP_TICKS, EntityDataTypes.INT, 0));
+                md.add(new EntityData<>(META_SCALE, EntityDataTypes.VECTOR3F, new Vector3f(pulseScale, pulseScale, pulseScale)));
+            }
+            sendMeta(out, bubbleInfos[i].entityId, md, users, false);
+        }
+    }
+    
+    /** 直接设置这些观察者看到的透明度（账本会滤掉没有变化的） */
+    private void setOpacity(BubbleRegion out, Collection<User> users, BubbleInfo[] bubbleInfos, int opacity) {
+        if (users.isEmpty()) return;
+        List<EntityData<?>> md = List.of(new EntityData<>(META_TEXT_OPACITY, EntityDataTypes.BYTE, (byte) Math.max(0, Math.min(255, opacity))));
+        for (BubbleInfo info : bubbleInfos) sendMeta(out, info.entityId, md, users, false);
+    }
+    
+    /** 单行文字层级的原地换字：只有文字实体 */
+    private void updateFarText(BubbleRegion out, Collection<User> users, BubbleInfo[] bubbleInfos, Component text) {
+        if (users.isEmpty()) return;
+        sendMeta(out, bubbleInfos[1].entityId, List.of(new EntityData<>(META_TEXT, EntityDataTypes.ADV_COMPONENT, text)), users, false);
+    }
+    
     /**
-     * 设置TEXT_DISPLAY实体的元数据
+     * TEXT_DISPLAY实体生成时的完整元数据（静态字段只在这里发一次）
      * layer: 0=bg, 1=tx, 2=tail
      */
-    private void setTextDisplayMetadata(User user, int entityId, Component text, int layer, float yOffset) {
-        try {
-            List<EntityData<?>> md = new ArrayList<>();
-
-            // 本地平移：用 translation.z 拉开层次（不要用世界Z）
-            // 如果仍偶发摩尔纹，把 0.020f 提大到 0.03f~0.05f
-            float tz = (layer == 0) ? -0.020f : (layer == 1 ? 0.020f : 0.000f);
-            md.add(new EntityData<>(META_TRANSLATION, EntityDataTypes.VECTOR3F, new Vector3f(0f, yOffset, tz)));
+    static List<EntityData<?>> spawnMetadata(Component text, int layer, float yOffset, float scale, int opacity, boolean shadow) {
+        List<EntityData<?>> md = new ArrayList<>();
 
-            // 文字：直接发 Adventure Component（不要自己拼 JSON）
-            md.add(new EntityData<>(META_TEXT, EntityDataTypes.ADV_COMPONENT, text));
+        // 本地平移：用 translation.z 拉开层次（不要用世界Z）
+        // 如果仍偶发摩尔纹，把 0.020f 提大到 0.03f~0.05f
+        float tz = layerDepth(layer);
+        md.add(new EntityData<>(META_TRANSLATION, EntityDataTypes.VECTOR3F, new Vector3f(0f, yOffset, tz)));
+        md.add(new EntityData<>(META_SCALE, EntityDataTypes.VECTOR3F, new Vector3f(scale, scale, scale)));
 
-            // 大行宽、透明背景、不透明字体
-            md.add(new EntityData<>(META_LINE_WIDTH,   EntityDataTypes.INT,  Integer.MAX_VALUE / 2));
-            md.add(new EntityData<>(META_BG_COLOR,     EntityDataTypes.INT,  0x00000000));
-            md.add(new EntityData<>(META_TEXT_OPACITY, EntityDataTypes.BYTE, (byte)255));
-            
-            // 设置flags：居中、无阴影、不使用默认背景
-            byte flags = 0x08; // 0x08 = 居中对齐
-            md.add(new EntityData<>(META_FLAGS,        EntityDataTypes.BYTE, flags));
+        // 文字：直接发 Adventure Component（不要自己拼 JSON）
+        md.add(new EntityData<>(META_TEXT, EntityDataTypes.ADV_COMPONENT, text));
 
-            // 可选：让它总朝向摄像机（和你原 Bukkit 版一致）
-            md.add(new EntityData<>(META_BILLBOARD,    EntityDataTypes.BYTE, (byte)3));
+        // 大行宽、透明背景、不透明字体
+        md.add(new EntityData<>(META_LINE_WIDTH,   EntityDataTypes.INT,  Integer.MAX_VALUE / 2));
+        md.add(new EntityData<>(META_BG_COLOR,     EntityDataTypes.INT,  0x00000000));
+        md.add(new EntityData<>(META_TEXT_OPACITY, EntityDataTypes.BYTE, (byte)Math.max(0, Math.min(255, opacity))));
+        
+        // 设置flags：居中、不使用默认背景，阴影按 show-shadow
+        byte flags = 0x08; // 0x08 = 居中对齐
+        if (shadow) flags |= 0x01; // 0x01 = 文字阴影
+        md.add(new EntityData<>(META_FLAGS,        EntityDataTypes.BYTE, flags));
 
-            user.sendPacket(new WrapperPlayServerEntityMetadata(entityId, md));
-            
-            P.getLogger().info("实体 " + entityId + " (layer " + layer + ") 设置本地偏移 Z=" + tz);
-        } catch (Exception e) {
-            P.getLogger().warning("设置TEXT_DISPLAY元数据失败: " + e.getMessage());
-        }
+        // 可选：让它总朝向摄像机（和你原 Bukkit 版一致）
+        md.add(new EntityData<>(META_BILLBOARD,    EntityDataTypes.BYTE, (byte)3));
+        return md;
+    }
+    
+    /** 各层的本地 Z 偏移：bg 在后、文字在前、tail 居中 */
+    private static float layerDepth(int layer) {
+        return (layer == 0) ? -0.020f : (layer == 1 ? 0.020f : 0.000f);
     }
     
     /**
      * 设置所有实体的缩放
      */
-    private void setScaleAll(float scale, BubbleInfo[] infos) {
+    private void setScaleAll(float scale, Bubble bubble, boolean droppable) {
         List<EntityData<?>> md = List.of(new EntityData<>(META_SCALE, EntityDataTypes.VECTOR3F, new Vector3f(scale, scale, scale)));
-        broadcastMeta(infos, md);
+        if (droppable) broadcastFrame(bubble, md);
+        else broadcastMeta(bubble, md);
     }
 
     /**
      * 设置所有实体的透明度
      */
-    private void setOpacityAll(int opacity, BubbleInfo[] infos) {
+    private void setOpacityAll(int opacity, Bubble bubble, boolean droppable) {
         byte b = (byte)Math.max(0, Math.min(255, opacity));
         List<EntityData<?>> md = List.of(new EntityData<>(META_TEXT_OPACITY, EntityDataTypes.BYTE, b));
-        broadcastMeta(infos, md);
+        if (droppable) broadcastFrame(bubble, md);
+        else broadcastMeta(bubble, md);
     }
 
     /**
-     * 广播元数据到所有玩家
+     * 客户端插值：一次性发出目标缩放 / 透明度，客户端在 ticks 内自行补间
+     * 写入插值延迟（0）才会让客户端从当前值开始新一段插值
      */
-    private void broadcastMeta(BubbleInfo[] infos, List<EntityData<?>> md) {
-        for (Player pl : Bukkit.getOnlinePlayers()) {
-            User u = PacketEvents.getAPI().getPlayerManager().getUser(pl);
-            if (u == null) continue;
-            for (BubbleInfo info : infos) {
-                u.sendPacket(new WrapperPlayServerEntityMetadata(info.entityId, md));
-            }
+    private void tweenAll(Bubble bubble, float scale, int opacity, int ticks) {
+        List<EntityData<?>> md = new ArrayList<>(4);
+        md.add(new EntityData<>(META_INTERP_DELAY, EntityDataTypes.INT, 0));
+        md.add(new EntityData<>(META_INTERP_TICKS, EntityDataTypes.INT, ticks));
+        md.add(new EntityData<>(META_SCALE, EntityDataTypes.VECTOR3F, new Vector3f(scale, scale, scale)));
+        if (FADE_WITH_SCALE) {
+            md.add(new EntityData<>(META_TEXT_OPACITY, EntityDataTypes.BYTE, (byte)Math.max(0, Math.min(255, opacity))));
         }
+        broadcastMeta(bubble, md);
     }
 
     /**
-     * 移除气泡实体
+     * 广播动画元数据到该气泡的 FULL 观察者（只发各观察者与上次不同的字段）
      */
-    private void removeBubbleEntities(BubbleInfo[] bubbleInfos) {
-        int[] ids = Arrays.stream(bubbleInfos).mapToInt(b -> b.entityId).toArray();
-        for (Player pl : Bukkit.getOnlinePlayers()) {
-            User u = PacketEvents.getAPI().getPlayerManager().getUser(pl);
-            if (u != null) u.sendPacket(new WrapperPlayServerDestroyEntities(ids));
+    private void broadcastMeta(Bubble bubble, List<EntityData<?>> md) {
+        final Collection<User> users = fullViewers(bubble);
+        if (users.isEmpty()) return;
+        for (BubbleInfo info : bubble.infos) {
+            sendMeta(bubble.region, info.entityId, md, users, false);
         }
     }
 
     /**
-     * 从Component中提取纯文本内容
+     * 逐 tick 动画的中间帧：观察者超出每 tick 预算或连接积压时可以被丢弃；
+     * 被丢掉的帧作废账本里对应的记录，之后的最终状态一定带上这些字段
      */
-    private String extractPlainText(Component component) {
-        try {
-            // 直接使用Adventure的PlainTextComponentSerializer
-            return net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer.plainText().serialize(component);
-        } catch (Exception e) {
-            // 如果失败，尝试简单的字符串处理
-            String text = component.toString();
-            P.getLogger().info("原始Component文本: " + text);
-            
-            // 移除Component的内部结构
-            if (text.contains("TextComponentImpl")) {
-                // 提取content字段的内容
-                int start = text.indexOf("content=\"");
-                if (start != -1) {
-                    start += 9; // "content=\"" 的长度
-                    int end = text.indexOf("\"", start);
-                    if (end != -1) {
-                        String extracted = text.substring(start, end);
-                        P.getLogger().info("提取的文本: " + extracted);
-                        return extracted;
-                    }
-                }
-            }
-            
-            // 如果是连接的组件，尝试提取所有文本部分
-            if (text.contains("children=[")) {
-                StringBuilder result = new StringBuilder();
-                String[] parts = text.split("TextComponentImpl\\{content=\"");
-                for (int i = 1; i < parts.length; i++) {
-                    int endIndex = parts[i].indexOf("\"");
-                    if (endIndex != -1) {
-                        result.append(parts[i].substring(0, endIndex));
-                        if (i < parts.length - 1) {
-                            result.append("\n"); // 添加换行符
-                        }
-                    }
-                }
-                if (result.length() > 0) {
-                    String extracted = result.toString();
-                    P.getLogger().info("提取的多行文本: " + extracted);
-                    return extracted;
-                }
-            }
-            
-            P.getLogger().warning("无法提取文本内容，使用原始文本");
-            return text;
+    private void broadcastFrame(Bubble bubble, List<EntityData<?>> md) {
+        final Collection<User> full = fullViewers(bubble);
+        if (full.isEmpty()) return;
+        final UUID speaker = bubble.owner;
+        final long startedAt = bubble.startedAt;
+        final BubbleRegion out = bubble.region;
+        for (BubbleInfo info : bubble.infos) {
+            final int entityId = info.entityId;
+            out.ledger.send(entityId, md, full, false, (packet, users) -> out.outbound.addFrame(packet, users, speaker, startedAt,
+                    viewer -> out.ledger.invalidate(viewer, entityId, md)));
         }
     }
+
+    /** 元数据经分区的差分账本过滤后排进其出站批次；fresh 表示实体刚生成 */
+    private void sendMeta(BubbleRegion out, int entityId, List<EntityData<?>> md, Collection<User> users, boolean fresh) {
+        out.ledger.send(entityId, md, users, fresh, out.outbound::add);
+    }
+
+    /**
+     * 移除气泡实体（只发给当前观察者）
+     */
+    private void removeBubbleEntities(Bubble bubble) {
+        if (bubble.viewers.isEmpty()) return;
+        destroyFor(bubble.region, bubble.infos, bubble.viewers.values());
+        bubble.viewers = new HashMap<>();
+        bubble.lods = new HashMap<>();
+        bubble.shown.clear();
+    }
+
+    /** 销毁气泡实体，并清掉这些观察者的元数据记录 */
+    private void destroyFor(BubbleRegion out, BubbleInfo[] infos, Collection<User> users) {
+        if (users.isEmpty()) return;
+        int[] ids = entityIds(infos);
+        trace.record(TraceRing.Kind.DESTROY, ids[0], ids.length, users.size());
+        fanOut(out, new WrapperPlayServerDestroyEntities(ids), users);
+        out.ledger.forget(users, ids);
+    }
+    
+    /** 播放动画帧的观察者（FULL）；没有分级记录时直接返回全部，不分配 */
+    private static Collection<User> fullViewers(Bubble b) {
+        if (b.lods.isEmpty()) return b.viewers.values();
+        List<User> out = new ArrayList<>(b.viewers.size());
+        for (Map.Entry<UUID, User> e : b.viewers.entrySet()) {
+            if (!b.lods.containsKey(e.getKey())) out.add(e.getValue());
+        }
+        return out;
+    }
     
+    /** 客户端上有完整三层实体的观察者（FULL + STATIC） */
+    private static Collection<User> layeredViewers(Bubble b) {
+        if (b.lods.isEmpty()) return b.viewers.values();
+        List<User> out = new ArrayList<>(b.viewers.size());
+        for (Map.Entry<UUID, User> e : b.viewers.entrySet()) {
+            if (b.lods.get(e.getKey()) != Bubble.Lod.TEXT) out.add(e.getValue());
+        }
+        return out;
+    }
+    
+    /** 单行文字层级只骑乘文字实体 */
+    private static BubbleInfo[] farInfos(BubbleInfo[] infos) {
+        return new BubbleInfo[]{infos[1]};
+    }
+    
+    /** 当前各层文本的快照 */
+    private static Component[] currentLayers(BubbleInfo[] infos) {
+        Component[] out = new Component[infos.length];
+        for (int i = 0; i < infos.length; i++) out[i] = infos[i].textContent;
+        return out;
+    }
+    
+    /** 同一个包编码一次，排进 users 中每个人的出站批次 */
+    private void fanOut(BubbleRegion out, PacketWrapper<?> packet, Collection<User> users) {
+        if (users.isEmpty()) return;
+        out.outbound.add(packet, users);
+    }
+    
+    private static int[] entityIds(BubbleInfo[] infos) {
+        int[] ids = new int[infos.length];
+        for (int i = 0; i < infos.length; i++) ids[i] = infos[i].entityId;
+        return ids;
+    }
+
     /**
-     * 开始气泡动画
+     * 开始气泡动画：进入 ENTER 状态，交给共享驱动任务逐 tick 推进
+     * enterFrom / enterTicks：正常入场从 START_SCALE 长大；原地更新时为弹跳缩放或 0 tick（直接停留）
      */
-    private void startBubbleAnimation(BubbleInfo[] bubbleInfos, UUID playerId) {
-        final int life = P.getConfig().getInt("bubble.lifetime-ticks", 80);
-        final int enterTicks = Math.max(2, BUBBLE_ENTER_TICKS);
-        final int exitTicks = Math.max(2, BUBBLE_EXIT_TICKS);
+    private void startBubbleAnimation(Bubble bubble, BubbleSettings cfg, int life, float enterFrom, int enterTicks) {
+        final int exitTicks = Math.max(2, cfg.fadeoutTicks);
         final int hold = Math.max(0, life - enterTicks - exitTicks);
         
-        // 入场动画
-        final BukkitTask enterTask = new BukkitRunnable() {
-            int t = 0;
-            public void run() {
-                float progress = Math.min(1f, t / (float) enterTicks);
-                float eased = easeOutBack(progress);
-                float s = START_SCALE + (TARGET_SCALE - START_SCALE) * eased;
-                setScaleAll(s, bubbleInfos);
-                if (FADE_WITH_SCALE) setOpacityAll((int)(255 * progress), bubbleInfos);
-                
-                if (++t > enterTicks) {
-                    cancel();
-                    if (hold > 0) {
-                        final BukkitTask holdTask = new BukkitRunnable() {
-                            public void run() { startExit(bubbleInfos, exitTicks, playerId); }
-                        }.runTaskLater(P, hold);
-                        pushTask(playerId, holdTask);
-                    } else {
-                        startExit(bubbleInfos, exitTicks, playerId);
-                    }
+        bubble.restart(enterTicks, hold, exitTicks);
+        bubble.enterFrom = enterFrom;
+        bubble.startedAt = bubble.region.wheel.now();
+        bubble.interpolated = cfg.interpolatedAnimation;
+        // 下一 tick 才开始：插值模式需要客户端先拿到生成包里的初始缩放
+        bubble.region.wheel.schedule(bubble, 1);
+    }
+    
+    /**
+     * 状态机单步：由 {@link BubbleScheduler} 在气泡到期时调用
+     * 返回下次唤醒的间隔，<= 0 表示气泡已结束
+     */
+    private int stepBubble(Bubble b, long now) {
+        switch (b.state) {
+            case ENTER: {
+                // 生成包还没排进批次：再等一 tick，避免动画包先于实体到达
+                if (!b.spawned && b.stateTick == 0 && b.spawnWait++ < SPAWN_WAIT_TICKS) return 1;
+                if (b.enterTicks > 0) {
+                    int wait = b.interpolated ? tweenOnce(b, TARGET_SCALE, 255, b.enterTicks) : enterFrame(b);
+                    if (wait > 0) return wait;
                 }
+                if (b.holdTicks > 0) {
+                    b.enter(Bubble.State.HOLD);
+                    return advanceHold(b);
+                }
+                b.enter(Bubble.State.EXIT);
+                return 1;
             }
-        }.runTaskTimer(P, 0L, 1L);
-        pushTask(playerId, enterTask);
-    }
-    
-    /**
-     * 开始退出动画
-     */
-    private void startExit(final BubbleInfo[] bubbleInfos, final int exitTicks, final UUID playerId) {
-        final BukkitTask exitTask = new BukkitRunnable() {
-            int t = 0;
-            public void run() {
-                float progress = Math.min(1f, t / (float) exitTicks);
-                float eased = easeInCubic(progress);
-                float s = TARGET_SCALE - (TARGET_SCALE - END_SCALE) * eased;
-                setScaleAll(s, bubbleInfos);
-                if (FADE_WITH_SCALE) setOpacityAll((int)(255 * (1f - progress)), bubbleInfos);
-                
-                if (++t > exitTicks) {
-                    // 移除实体
-                    removeBubbleEntities(bubbleInfos);
-                    playerBubbles.remove(playerId);
-                    cancel();
+            case HOLD:
+                if (b.stateTick < b.holdTicks) {
+                    // 停留期间按固定间隔醒来刷新观察者（进出范围的玩家）
+                    refreshViewers(b);
+                    return advanceHold(b);
                 }
+                // 停留结束，本 tick 直接播放第一帧退场
+                b.enter(Bubble.State.EXIT);
+                return stepBubble(b, now);
+            case EXIT: {
+                int wait = b.interpolated ? tweenOnce(b, END_SCALE, 0, b.exitTicks) : exitFrame(b);
+                if (wait > 0) return wait;
+                // 移除实体
+                removeBubbleEntities(b);
+                retire(b);
+                return 0;
             }
-        }.runTaskTimer(P, 0L, 1L);
-        pushTask(playerId, exitTask);
+            default:
+                return 0;
+        }
     }
     
-
+    /** 逐 tick 模式的一帧入场；返回 0 表示入场结束 */
+    private int enterFrame(Bubble b) {
+        float progress = Math.min(1f, b.stateTick / (float) b.enterTicks);
+        float eased = easeOutBack(progress);
+        float s = b.enterFrom + (TARGET_SCALE - b.enterFrom) * eased;
+        // 最后一帧是该段的最终状态，必须送达；之前的都可以丢
+        boolean droppable = progress < 1f;
+        setScaleAll(s, b, droppable);
+        // 弹跳时字已经是不透明的，不再淡入
+        if (FADE_WITH_SCALE && b.enterFrom < TARGET_SCALE) setOpacityAll((int)(255 * progress), b, droppable);
+        return ++b.stateTick <= b.enterTicks ? 1 : 0;
+    }
+    
+    /** 逐 tick 模式的一帧退场；返回 0 表示退场结束 */
+    private int exitFrame(Bubble b) {
+        float progress = Math.min(1f, b.stateTick / (float) b.exitTicks);
+        float eased = easeInCubic(progress);
+        float s = TARGET_SCALE - (TARGET_SCALE - END_SCALE) * eased;
+        boolean droppable = progress < 1f;
+        setScaleAll(s, b, droppable);
+        if (FADE_WITH_SCALE) setOpacityAll((int)(255 * (1f - progress)), b, droppable);
+        return ++b.stateTick <= b.exitTicks ? 1 : 0;
+    }
     
     /**
-     * 移除passenger关系
+     * 插值模式：本状态第一次醒来时发出唯一的目标包，睡满 ticks 后再醒来返回 0
+     * （客户端插值是线性的，缓动曲线只在逐 tick 模式下生效）
      */
-    private void removePassengerRelationship(User user, Player player) {
-        try {
-            // 发送空的passenger数组来清除所有passenger
-            int playerEntityId = player.getEntityId();
-            int[] emptyPassengerIds = new int[0]; // 空数组
-            
-            WrapperPlayServerSetPassengers setPassengersPacket = new WrapperPlayServerSetPassengers(playerEntityId, emptyPassengerIds);
-            user.sendPacket(setPassengersPacket);
-            
-            P.getLogger().info("成功清除玩家 " + player.getName() + " 的passenger关系");
-            
-        } catch (Exception e) {
-            P.getLogger().warning("清除passenger关系失败: " + e.getMessage());
-        }
+    private int tweenOnce(Bubble b, float scale, int opacity, int ticks) {
+        if (b.stateTick > 0) return 0;
+        tweenAll(b, scale, opacity, ticks);
+        b.stateTick = ticks;
+        return ticks;
     }
     
-
+    /** HOLD 内前进一段：最多 VIEWER_REFRESH_TICKS，返回本段长度 */
+    private static int advanceHold(Bubble b) {
+        int d = Math.min(b.holdTicks - b.stateTick, VIEWER_REFRESH_TICKS);
+        b.stateTick += d;
+        return d;
+    }
     
     /**
      * 清理指定玩家的气泡数据
      */
     public void cleanupPlayer(UUID playerId) {
-        // 取消正在运行的动画任务
-        cancelRunningTasks(playerId);
-        
-        // 移除并销毁气泡实体
-        BubbleInfo[] bubbleInfos = playerBubbles.remove(playerId);
-        if (bubbleInfos != null) {
-            removeBubbleEntities(bubbleInfos);
+        // 移除气泡（含整条堆叠链）并停止动画；链上的状态只能由所在分区的线程改
+        final Bubble head = playerBubbles.remove(playerId);
+        if (head != null) execution.execute(head.region, () -> cleanupChain(head));
+        queues.remove(playerId);
+    }
+    
+    /** 销毁并回收整条气泡链（分区线程，或驱动任务已停时） */
+    private void cleanupChain(Bubble bubble) {
+        // 先整条销毁再逐个摘下，retire 不会给正要销毁的旧气泡重发乘客列表
+        for (Bubble b = bubble; b != null; b = b.older) {
+            if (b.state == Bubble.State.DEAD) continue;
+            b.region.wheel.cancel(b);
+            removeBubbleEntities(b);
+        }
+        while (bubble != null) {
+            Bubble older = bubble.older;
+            // 投递期间已经自然结束的不再重复回收 id
+            if (bubble.state != Bubble.State.DEAD) retire(bubble);
+            bubble = older;
         }
     }
     
+    /**
+     * 说话者跨分区：在旧分区线程上把整条气泡链摘出时间轮，再投递给新分区按剩余时间重新挂上。
+     * 旧分区账本里这些实体的记录一并清掉，新分区下一次发送带全量字段
+     */
+    private void migrate(Bubble head, BubbleRegion to) {
+        final BubbleRegion from = head.region;
+        if (from == to || playerBubbles.get(head.owner) != head) return;
+        final List<Bubble> chain = new ArrayList<>(2);
+        for (Bubble b = head; b != null; b = b.older) chain.add(b);
+        final int[] remaining = new int[chain.size()];
+        final long[] age = new long[chain.size()];
+        for (int i = 0; i < remaining.length; i++) {
+            Bubble b = chain.get(i);
+            remaining[i] = b.isScheduled() ? (int) Math.max(1, b.deadline - from.wheel.now()) : 0;
+            age[i] = from.wheel.now() - b.startedAt;
+            from.wheel.cancel(b);
+            from.ledger.forget(b.viewers.values(), entityIds(b.infos));
+        }
+        // 摘完再改归属：其他线程按新归属投递的任务不会与上面的遍历并发
+        for (Bubble b : chain) b.region = to;
+        metrics.migrations.increment();
+        trace.record(TraceRing.Kind.MIGRATE, head.infos[0].entityId, chain.size(), 0);
+        to.handOff(here -> {
+            for (int i = 0; i < remaining.length; i++) {
+                Bubble b = chain.get(i);
+                b.region = here;
+                // 各分区时间轮的 tick 计数互不相干，按已播放时长换算到新分区
+                b.startedAt = here.wheel.now() - age[i];
+                if (b.state != Bubble.State.DEAD && remaining[i] > 0 && !b.isScheduled()) here.wheel.schedule(b, remaining[i]);
+            }
+        });
+    }
+    
     /**
      * 每tick更新所有气泡位置
      */
@@ -465,20 +1457,6 @@ public class PacketEventsBubbleManager implements PacketListener {
         // TODO: 实现位置更新逻辑
     }
     
-    // 工具方法
-    private void pushTask(UUID id, BukkitTask task) {
-        runningTasks.computeIfAbsent(id, k -> new ArrayList<>()).add(task);
-    }
-    
-    private void cancelRunningTasks(UUID id) {
-        List<BukkitTask> list = runningTasks.remove(id);
-        if (list != null) {
-            for (BukkitTask task : list) {
-                try { task.cancel(); } catch (Throwable ignored) {}
-            }
-        }
-    }
-    
     // 缓动函数
     private static float easeOutBack(float t) {
         float s = 1.70158f;
@@ -490,180 +1468,155 @@ public class PacketEventsBubbleManager implements PacketListener {
         return t*t*t;
     }
     
-    // 文本处理工具方法
-    private String preprocessEmojiToIA(String s) {
-        if (s == null || s.isEmpty()) return "";
-        return EMOJI_COLON.matcher(s).replaceAll("%img_$1%");
-    }
-    
-    private static final Pattern EMOJI_COLON = Pattern.compile(":([A-Za-z0-9_]+):");
-    
-    private String strip(String s) {
-        return s == null ? "" : s.replaceAll("§[0-9A-FK-ORa-fk-or]", "");
-    }
+    /* =====================================
+     *            背景生成系统
+     * ===================================== */
     
-    private List<String> splitByNewlines(String s) {
-        String[] parts = s.split("\\r?\\n", -1);
-        return parts.length == 0 ? List.of("") : Arrays.asList(parts);
+    /** 背景 + tail 行成品：一次缓存查找，未命中才真正拼接 */
+    private BackgroundCache.Entry background(Player p, int innerPx, SliceSet s, int trimPerSide) {
+        final int rep = BackgroundSlices.repeatFor(innerPx, s);
+        return backgroundCache.get(s.height, rep, trimPerSide, () -> BackgroundSlices.build(glyphIndex, p, rep, s, trimPerSide));
     }
     
-    private List<String> wrapByPxRespectingNewlinesScaled(String s, int inner, double widthMul) {
-        List<String> out = new ArrayList<>();
-        StringBuilder line = new StringBuilder();
-        int cur = 0;
-        for (int i = 0; i < s.length(); ) {
-            int cp = s.codePointAt(i);
-            i += Character.charCount(cp);
-            
-            if (cp == '\r') continue;
-            if (cp == '\n') { out.add(line.toString()); line.setLength(0); cur = 0; continue; }
-            
-            String ch = new String(Character.toChars(cp));
-            int w = pxScaled(ch, widthMul);
-            
-            if (cur + w > inner && line.length() > 0) {
-                out.add(line.toString());
-                line.setLength(0);
-                cur = 0;
+    /**
+     * 按当前配置预热：每个高度、从 1 到最大可能重复次数各建一份
+     * （字形与玩家无关，退回 PAPI 时也用 null 玩家解析）
+     */
+    private void prewarmBackgrounds(BubbleSettings cfg) {
+        for (SliceSet s : cfg.distinctSets()) {
+            int maxRep = BackgroundSlices.repeatFor(cfg.innerPx + Math.max(0, s.paddingPx), s) + 1;
+            for (int rep = 1; rep <= maxRep; rep++) {
+                backgroundCache.put(s.height, rep, cfg.tailTrimPerSide, BackgroundSlices.build(glyphIndex, null, rep, s, cfg.tailTrimPerSide));
             }
-            line.append(ch);
-            cur += w;
         }
-        out.add(line.toString());
-        return out;
     }
     
-    private int pxScaled(String s, double widthMul) {
-        return (int) Math.round(pxBase(s) * widthMul);
+    // PacketEvents事件处理
+    @Override
+    public void onUserLogin(UserLoginEvent event) {
+        User user = event.getUser();
+        trace.record(TraceRing.Kind.LOGIN, user.getEntityId(), user.getClientVersion().getProtocolVersion(), 0);
     }
     
-    private int pxBase(String s) {
-        int ascii = P.getConfig().getInt("bubble.font-px", 6);
-        int px = 0;
-        for (int cp : s.codePoints().toArray()) {
-            if (cp == 32) px += Math.max(4, ascii - 2);
-            else if (cp < 128) px += ascii;
-            else if ((cp >= 0x4E00 && cp <= 0x9FFF) || (cp >= 0x3040 && cp <= 0x30FF)) px += (int)Math.round(ascii * 1.6);
-            else px += (int)Math.round(ascii * 1.3);
-        }
-        return px;
+    @Override
+    public void onUserDisconnect(UserDisconnectEvent event) {
+        UUID id = event.getUser().getUUID();
+        if (id != null) tracker.forget(id);
     }
     
-    private List<String> hardCapReplaceLastChar(List<String> lines, int maxLines, int innerPx, double widthMul, String ellipsis) {
-        List<String> out = new ArrayList<>(lines.subList(0, maxLines));
-        String last = out.get(maxLines - 1);
-        
-        last = removeLastCodePoint(last);
+    /**
+     * 镜像原版实体追踪：观察者收到说话者的生成包时补发其气泡，收到销毁包时一起销毁，
+     * 收到说话者的乘客列表时补上气泡；进服 / 重生 / 换世界时客户端会清空所有实体（netty 线程）
+     */
+    @Override
+    public void onPacketSend(PacketSendEvent event) {
+        final PacketTypeCommon type = event.getPacketType();
+        final User user = event.getUser();
+        final UUID viewer = user.getUUID();
+        if (viewer == null) return;
         
-        while (pxScaled(last + ellipsis, widthMul) > innerPx && last.length() > 0) {
-            last = removeLastCodePoint(last);
-        }
-        if (last.isEmpty() && pxScaled(ellipsis, widthMul) > innerPx) {
-            out.set(maxLines - 1, "");
-        } else {
-            out.set(maxLines - 1, last + ellipsis);
+        if (type == PacketType.Play.Server.SPAWN_ENTITY) {
+            WrapperPlayServerSpawnEntity spawn = new WrapperPlayServerSpawnEntity(event);
+            if (spawn.getEntityType() == EntityTypes.PLAYER) onSpeakerSpawned(user, viewer, spawn.getEntityId());
+        } else if (type == PacketType.Play.Server.SPAWN_PLAYER) {
+            onSpeakerSpawned(user, viewer, new WrapperPlayServerSpawnPlayer(event).getEntityId());
+        } else if (type == PacketType.Play.Server.DESTROY_ENTITIES) {
+            for (int id : new WrapperPlayServerDestroyEntities(event).getEntityIds()) {
+                tracker.destroyed(viewer, id);
+                Bubble b = bubblesBySpeaker.get(id);
+                if (b != null) onRegion(b, () -> detachViewer(b, viewer));
+            }
+        } else if (type == PacketType.Play.Server.SET_PASSENGERS) {
+            // 锚点实体上下乘客时服务器发的乘客列表不含气泡：按该观察者的挂载记录原地补上，气泡不会被挤下来
+            WrapperPlayServerSetPassengers packet = new WrapperPlayServerSetPassengers(event);
+            int[] bubbles = mountedFor(packet.getEntityId(), viewer);
+            int[] merged = bubbles == null ? null : withBubbles(packet.getPassengers(), bubbles);
+            if (merged != null) {
+                packet.setPassengers(merged);
+                event.markForReEncode(true);
+            }
+        } else if (type == PacketType.Play.Server.JOIN_GAME || type == PacketType.Play.Server.RESPAWN) {
+            tracker.reset(viewer);
+            if (P.isEnabled()) forgetViewer(viewer);
         }
-        return out;
     }
     
-    private String removeLastCodePoint(String s) {
-        if (s == null || s.isEmpty()) return "";
-        int end = s.length();
-        int start = s.offsetByCodePoints(end, -1);
-        return s.substring(0, start);
+    private void onSpeakerSpawned(User user, UUID viewer, int entityId) {
+        tracker.spawned(viewer, entityId);
+        Bubble b = bubblesBySpeaker.get(entityId);
+        // 任务在下个 tick 执行，此时说话者的生成包已经写出
+        if (b != null) onRegion(b, () -> attachViewer(b, user));
     }
     
-    /* =====================================
-     *            背景生成系统
-     * ===================================== */
-    
-    /** 三段式集合 */
-    private static final class SliceSet {
-        String left, mid, right, tail;
-        int leftPx, midPx, rightPx, tailPx, paddingPx;
-    }
-    
-    /** 取最合适高度（1 行=13px，之后每多一行+10px；没有就往下找） */
-    private int pickHeight(FileConfiguration c, int lines) {
-        int h = 13 + (Math.max(1, lines) - 1) * 10;
-        int max = c.getInt("bubble.max-height", h);
-        h = Math.min(h, max);
-        while (h > 0 && !c.isConfigurationSection("bubble.sets." + h)) h -= 10;
-        return Math.max(h, 13);
-    }
-    
-    /** 从 config 载入某高度的三段式贴图定义 */
-    private SliceSet loadSet(FileConfiguration c, int h) {
-        String base = "bubble.sets." + h + ".";
-        SliceSet s = new SliceSet();
-        s.left  = c.getString(base + "left");
-        s.mid   = c.getString(base + "mid");
-        s.right = c.getString(base + "right");
-        s.tail  = c.getString(base + "tail");
-        s.leftPx   = c.getInt(base + "left_px", 3);
-        s.midPx    = c.getInt(base + "mid_px", 5);
-        s.rightPx  = c.getInt(base + "right_px", 3);
-        s.tailPx   = c.getInt(base + "tail_px", 7);
-        s.paddingPx= c.getInt(base + "padding_px", 12);
-        return s;
-    }
-    
-    /** 背景：Left + Mid*repeat + Right（严格按像素凑满，不重叠） */
-    private String threeSlice(Player p, int innerPx, SliceSet s) {
-        int avail = Math.max(0, innerPx - s.leftPx - s.rightPx);
-        int rep = Math.max(1, (int) Math.ceil(avail / (double) s.midPx));
-        String L = glyph(p, s.left), M = glyph(p, s.mid), R = glyph(p, s.right);
-        return L + M.repeat(rep) + R;
-    }
-    
-    /** tail 行：mid*左 + tail + mid*右 —— 仅在 tail 两侧裁掉若干 mid，不改背景宽度 */
-    private String tailLineMidBothSides(Player p, int innerPx, SliceSet s, int trimPerSide) {
-        int avail = Math.max(0, innerPx - s.leftPx - s.rightPx);
-        int rep   = Math.max(1, (int) Math.ceil(avail / (double) s.midPx));
-        int tailTiles = Math.max(1, Math.round((float) s.tailPx / (float) s.midPx));
-        int rim = Math.max(0, rep - tailTiles);
-        int left  = rim / 2;
-        int right = rim - left;
-
-        int wantTrimTotal = Math.max(0, trimPerSide) * 2;
-        int doTrimTotal   = Math.min(rim, wantTrimTotal);
-        int trimL = doTrimTotal / 2;
-        int trimR = doTrimTotal - trimL;
-        left  = Math.max(0, left  - trimL);
-        right = Math.max(0, right - trimR);
-
-        String M = glyph(p, s.mid), T = glyph(p, s.tail);
-        return M.repeat(left) + T + M.repeat(right);
+    /** 投递到气泡所在分区，下一 tick 执行 */
+    private void onRegion(Bubble b, Runnable task) {
+        if (P.isEnabled()) b.region.post(task);
     }
     
-    /** IA 字形解析：支持 "img_xxx" / "%img_xxx%" / "ns:id" / 直接 "xxx" */
-    private String glyph(Player p, String token) {
-        if (token == null || token.isEmpty()) return "";
-        String holder;
-        if (token.startsWith("%")) holder = token;
-        else if (token.startsWith("img_")) holder = "%" + token + "%";
-        else if (token.contains(":")) holder = "%img_" + token.replace(':', '_') + "%";
-        else holder = "%img_" + token + "%";
-        String uni = PlaceholderAPI.setPlaceholders(p, holder);
-        return (uni == null || uni.equals(holder)) ? "" : uni;
+    /**
+     * 观察者刚在客户端上看到说话者：按气泡当前状态补发生成 + 元数据 + passenger，
+     * 同一 tick 内经出站批次作为一个 bundle 写出
+     */
+    private void attachViewer(Bubble head, User user) {
+        if (playerBubbles.get(head.owner) != head) return;
+        UUID id = user.getUUID();
+        if (!tracker.canSee(id, head.speakerEntityId)) return;
+        final BubbleAnchor anchor = head.anchor;
+        if (anchor == null || !anchor.valid()) return;
+        
+        final BubbleSettings cfg = settings;
+        final org.bukkit.Location at = anchor.location();
+        // 观察者属于它自己的区域：距离只用空间索引里记录的坐标
+        final double d2 = viewerGrid.distanceSquared(at, id);
+        if (d2 == Double.MAX_VALUE) return;
+        final Bubble.Lod lod = lodFor(cfg, at, id);
+        List<User> one = List.of(user);
+        for (Bubble bubble = head; bubble != null; bubble = bubble.older) {
+            if (bubble.state == Bubble.State.DEAD || bubble.state == Bubble.State.EXIT) continue;
+            final double range = lodRange(cfg, bubble.viewRange);
+            if (bubble.viewers.containsKey(id) || d2 > range * range) continue;
+            if (lod == Bubble.Lod.TEXT) {
+                spawnFarText(bubble.region, one, bubble.infos, bubble.farText, anchor.head(), bubble.yOffset);
+            } else {
+                spawnBubbleEntities(bubble.region, one, bubble.infos, currentLayers(bubble.infos), anchor.head(), bubble.yOffset, TARGET_SCALE, 255);
+            }
+            bubble.viewers.put(id, user);
+            if (lod != Bubble.Lod.FULL) bubble.lods.put(id, lod);
+            bubble.shown.add(id);
+        }
+        // 整条链补完后只挂一次：逐个气泡发会让后一个包顶掉前面的乘客
+        mount(head.region, anchor.entityId, anchor.riders(), chainMounts(head, one));
     }
     
-    // 气泡信息类
-    private static class BubbleInfo {
-        final int entityId;
-        final UUID entityUuid;
-        Component textContent;
-        
-        public BubbleInfo(int entityId, UUID entityUuid) {
-            this.entityId = entityId;
-            this.entityUuid = entityUuid;
+    /** 服务器在该观察者客户端上销毁了说话者：气泡（含堆叠链）跟着销毁 */
+    private void detachViewer(Bubble head, UUID viewer) {
+        final Map<UUID, int[]> byViewer = mounted.get(head.speakerEntityId);
+        if (byViewer != null) byViewer.remove(viewer);
+        for (Bubble bubble = head; bubble != null; bubble = bubble.older) {
+            User user = bubble.viewers.remove(viewer);
+            // 层级记录跟着清掉：否则重新进入范围时会按旧层级判断（例如误当成单行文字观察者）
+            bubble.lods.remove(viewer);
+            bubble.shown.remove(viewer);
+            if (user != null) destroyFor(bubble.region, bubble.infos, List.of(user));
         }
     }
     
-    // PacketEvents事件处理
-    @Override
-    public void onUserLogin(UserLoginEvent event) {
-        P.getLogger().info("玩家登录: " + event.getUser().getName());
+    /**
+     * 观察者离线 / 客户端已清空所有实体：只需从观察者集合和账本里移除，不用再发销毁包。
+     * 各气泡链与各分区账本都在其所在分区的线程上处理（任意线程可调用）
+     */
+    private void forgetViewer(UUID viewer) {
+        for (Bubble head : playerBubbles.values()) {
+            execution.execute(head.region, () -> {
+                for (Bubble b = head; b != null; b = b.older) {
+                    b.viewers.remove(viewer);
+                    b.lods.remove(viewer);
+                    b.shown.remove(viewer);
+                }
+            });
+        }
+        for (Map<UUID, int[]> byViewer : mounted.values()) byViewer.remove(viewer);
+        for (BubbleRegion r : execution.regions()) execution.execute(r, () -> r.ledger.forgetViewer(viewer));
     }
     
     @Override
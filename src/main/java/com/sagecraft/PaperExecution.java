@@ -0,0 +1,71 @@
+package com.sagecraft;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 默认后端：单个全局分区，由一个每 tick 执行的 Bukkit 任务在主线程上驱动
+ *
+ * 消息队列也在该分区的 tick 末尾处理（先推进动画，再取消息，最后写出出站批次）。
+ */
+final class PaperExecution implements BubbleExecution {
+
+    private final JavaPlugin P;
+    private final BubbleRegion global;
+    private BukkitTask task;
+
+    PaperExecution(JavaPlugin plugin, RegionFactory regions) {
+        this.P = plugin;
+        this.global = regions.create(null, null, 0, 0);
+    }
+
+    @Override
+    public void start() {
+        if (task != null) return;
+        task = Bukkit.getScheduler().runTaskTimer(P, global, 1L, 1L);
+    }
+
+    @Override
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    @Override
+    public BubbleRegion regionFor(Location at) {
+        return global;
+    }
+
+    @Override
+    public Collection<BubbleRegion> regions() {
+        return List.of(global);
+    }
+
+    @Override
+    public void runFor(Entity speaker, Runnable task) {
+        Bukkit.getScheduler().runTask(P, task);
+    }
+
+    @Override
+    public boolean owns(BubbleRegion region) {
+        return Bukkit.isPrimaryThread();
+    }
+
+    @Override
+    public long now() {
+        return global.wheel.now();
+    }
+
+    @Override
+    public String name() {
+        return "Paper（主线程，单分区）";
+    }
+}
@@ -0,0 +1,89 @@
+package com.sagecraft;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 把工作线程池切成固定数量的串行通道
+ *
+ * 同一个 key（说话者 / 锚点）的任务总是按提交顺序一个接一个执行，不同通道之间仍然并行：
+ * 同一说话者的排版与发包不会并发，也不会让旧消息晚于新消息落地。
+ * 每个通道同一时刻最多在线程池里占一个任务，池队列不会被单个说话者刷满。
+ *
+ * 所有通道合计排队的任务数有上限（capacity）：新工作（排版）先看 {@link #saturated}，满了就留在
+ * 各自的来源队列里等下一 tick，不丢弃、也不在提交线程上执行；已接纳工作的后续任务（发包）总是入队，
+ * 它们的数量受已接纳的排版任务约束。
+ */
+final class SerialLanes {
+
+    /** 一个通道一次最多连续执行的任务数，之后让出线程给其他通道 */
+    private static final int BATCH = 64;
+
+    private final Executor pool;
+    private final Lane[] lanes;
+    private final int capacity;
+    /** 所有通道里已入队、尚未执行完的任务数 */
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Logger log;
+
+    SerialLanes(Executor pool, int lanes, int capacity, Logger log) {
+        this.pool = pool;
+        this.capacity = Math.max(1, capacity);
+        this.log = log;
+        int n = Integer.highestOneBit(Math.max(1, lanes - 1)) << 1;
+        this.lanes = new Lane[n];
+        for (int i = 0; i < n; i++) this.lanes[i] = new Lane();
+    }
+
+    /** 排队任务已达上限：调用方应把新工作留到下一 tick 再提交 */
+    boolean saturated() {
+        return queued.get() >= capacity;
+    }
+
+    /** 当前排队的任务数 */
+    int queued() {
+        return queued.get();
+    }
+
+    /** 按 key 所在通道排队执行（总是入队；是否接纳新工作由调用方先看 {@link #saturated}） */
+    void execute(Object key, Runnable task) {
+        int h = key.hashCode();
+        lanes[(h ^ (h >>> 16)) & (lanes.length - 1)].submit(task);
+    }
+
+    private final class Lane implements Runnable {
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void submit(Runnable task) {
+            queued.incrementAndGet();
+            tasks.add(task);
+            if (scheduled.compareAndSet(false, true)) pool.execute(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                for (int n = BATCH; n > 0 && (task = tasks.poll()) != null; n--) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.log(Level.WARNING, "气泡工作任务失败", e);
+                    } finally {
+                        queued.decrementAndGet();
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                // 放下标记后又有新任务（或本轮没跑完）：重新排进线程池
+                if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) pool.execute(this);
+            }
+        }
+    }
+}
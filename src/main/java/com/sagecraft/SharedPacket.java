@@ -0,0 +1,70 @@
+package com.sagecraft;
+
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 一次编码、多次发送的数据包
+ *
+ * 同一个 wrapper 按客户端协议版本各序列化一次，得到一个持有引用的 ByteBuf；
+ * 每个观察者拿到的是 retainedDuplicate（共享底层内存，各自独立读指针），
+ * 由 netty 在写出后释放。用完后 {@link #close()} 释放自己持有的那一份引用。
+ *
+ * 非线程安全：创建、取用、关闭应在同一线程内完成。
+ */
+final class SharedPacket implements AutoCloseable {
+
+    private final PacketWrapper<?> wrapper;
+    private final Map<ClientVersion, Object> encoded = new EnumMap<>(ClientVersion.class);
+    /** 编码失败（PacketEvents 内部实现变化等）时退回逐个写 wrapper */
+    private boolean fallback;
+
+    SharedPacket(PacketWrapper<?> wrapper) {
+        this.wrapper = wrapper;
+    }
+
+    /**
+     * 给一个观察者的待写内容：已编码时为一份 retainedDuplicate 的 ByteBuf（调用方负责写出或释放），
+     * 回退时为 wrapper 本身
+     */
+    Object payloadFor(User user) {
+        Object buf = fallback ? null : encodedFor(user);
+        return buf == null ? wrapper : ByteBufHelper.retainedDuplicate(buf);
+    }
+
+    private Object encodedFor(User user) {
+        ClientVersion version = user.getClientVersion();
+        if (version == null) return null;
+        Object buf = encoded.get(version);
+        if (buf != null) return buf;
+        try {
+            wrapper.setBuffer(null);
+            wrapper.prepareForSend(user.getChannel(), true);
+            buf = wrapper.getBuffer();
+            wrapper.setBuffer(null);
+        } catch (Throwable t) {
+            fallback = true;
+            return null;
+        }
+        if (buf != null) encoded.put(version, buf);
+        return buf;
+    }
+
+    /** 已编码的版本数（即实际序列化次数） */
+    int encodings() {
+        return encoded.size();
+    }
+
+    @Override
+    public void close() {
+        for (Object buf : encoded.values()) {
+            ByteBufHelper.release(buf);
+        }
+        encoded.clear();
+    }
+}
@@ -0,0 +1,101 @@
+package com.sagecraft;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayDeque;
+
+/**
+ * 单个说话者的消息队列 + 令牌桶
+ *
+ * 聊天线程只负责入队；主线程每 tick 最多取出一次，按策略合成一次可见更新：
+ *   replace 只显示最新一条；stack 每次取最早的一条另起一个气泡放在最下方，旧气泡往上推；
+ *   merge 把新消息追加进当前气泡（保留最近 max-lines 条）。
+ * 令牌桶限制每个说话者每秒的更新次数，取不到令牌的消息留在队列里（按策略截断）等下个 tick。
+ */
+final class SpeakerQueue {
+
+    /** 连发时的处理策略 */
+    enum Policy {
+        REPLACE, STACK, MERGE;
+
+        static Policy parse(String s) {
+            if (s == null) return REPLACE;
+            switch (s.trim().toLowerCase(java.util.Locale.ROOT)) {
+                case "stack": return STACK;
+                case "merge": return MERGE;
+                default: return REPLACE;
+            }
+        }
+    }
+
+    final Player player;
+    private final ArrayDeque<ChatRuns> pending = new ArrayDeque<>();
+    /** merge 策略下当前气泡里已经显示的消息 */
+    private final ArrayDeque<ChatRuns> shown = new ArrayDeque<>();
+    private double tokens = -1;
+    private long lastRefill;
+    /** 是否已在待处理列表中 */
+    private boolean dirty;
+
+    SpeakerQueue(Player player) {
+        this.player = player;
+    }
+
+    /**
+     * 入队（任意线程）；keep 为队列上限，超出丢最早的
+     * 返回 true 表示调用方需要把它加进待处理列表
+     */
+    synchronized boolean offer(ChatRuns message, int keep) {
+        pending.addLast(message);
+        while (pending.size() > Math.max(1, keep)) pending.pollFirst();
+        if (dirty) return false;
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * 主线程：取一个令牌并按策略合成本 tick 要显示的文本；没有令牌或队列为空时返回 null
+     */
+    synchronized ChatRuns take(long tick, BubbleSettings cfg) {
+        if (pending.isEmpty()) return null;
+        refill(tick, cfg.ratePerSecond / 20.0, cfg.rateBurst);
+        if (tokens < 1) return null;
+        tokens -= 1;
+
+        switch (cfg.queuePolicy) {
+            case STACK:
+                return pending.pollFirst();
+            case MERGE:
+                shown.addAll(pending);
+                pending.clear();
+                while (shown.size() > Math.max(1, cfg.maxLines)) shown.pollFirst();
+                return ChatRuns.join(shown);
+            default:
+                ChatRuns last = pending.peekLast();
+                pending.clear();
+                return last;
+        }
+    }
+
+    /** 主线程：本 tick 处理完；队列还有剩余时返回 true（需要留在待处理列表） */
+    synchronized boolean settle() {
+        if (!pending.isEmpty()) return true;
+        dirty = false;
+        return false;
+    }
+
+    /** 当前气泡已经消失：merge 从头开始累积 */
+    synchronized void resetShown() {
+        shown.clear();
+    }
+
+    private void refill(long tick, double perTick, int burst) {
+        final int cap = Math.max(1, burst);
+        if (tokens < 0) {
+            tokens = cap;
+        } else if (perTick > 0) {
+            tokens = Math.min(cap, tokens + (tick - lastRefill) * perTick);
+        }
+        lastRefill = tick;
+    }
+}
@@ -0,0 +1,354 @@
+package com.sagecraft;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单遍流式的文本规范化 + 换行器
+ *
+ * 一次遍历原始聊天文本，同时完成：
+ *   去掉 § 旧式颜色码、识别 :emoji: 记号、MiniMessage 转义、按像素宽度断行、超出行数时加省略号。
+ * 组件消息（{@link ChatRuns}）走同一遍历，但不做转义，每行额外输出所跨的样式段，加粗段按客户端规则每字多 1px。
+ * 断行优先落在空格 / CJK / 表情边界上，找不到才在字符处硬断；省略号基于每行的前缀宽度数组截断，
+ * 不再反复测量字符串。中间状态放在线程本地的可复用缓冲里，除了输出的每行字符串外不做分配。
+ *
+ * 实例不可变，随 {@link BubbleSettings} 一起编译，可以在任意线程使用。
+ */
+final class TextLayout {
+
+    /** 排版结果：字符串消息的每行都是已经做过 MiniMessage 转义的文本，组件消息的每行是原文 */
+    static final class Result {
+        final List<String> lines;
+        /** 最宽一行的像素宽度（按可见字符计，不含转义符） */
+        final int maxWidth;
+        /** 组件消息：每行的样式段 [结束下标, 段号, ...]（交给 {@link ChatRuns#line}）；字符串消息为 null */
+        final List<int[]> segments;
+
+        Result(List<String> lines, int maxWidth, List<int[]> segments) {
+            this.lines = lines;
+            this.maxWidth = maxWidth;
+            this.segments = segments;
+        }
+    }
+
+    /** 线程本地的可复用缓冲 */
+    private static final class Scratch {
+        final StringBuilder out = new StringBuilder(256);
+        /** 第 i 个单元结束时在 out 中的下标 */
+        int[] ends = new int[64];
+        /** 第 i 个单元结束时的行宽（前缀和） */
+        int[] widths = new int[64];
+        /** 第 i 个单元之后是否允许断行 */
+        boolean[] breakAfter = new boolean[64];
+        /** 第 i 个单元是否为空格（断在此处时丢弃） */
+        boolean[] space = new boolean[64];
+        /** 第 i 个单元所属的样式段（组件消息） */
+        int[] runs = new int[64];
+        int units;
+        /** 当前字符所在的样式段 */
+        int run;
+        /** 组件消息时收集每行的样式段，字符串消息为 null */
+        List<int[]> segments;
+        /** 已提交各行中的最大宽度 */
+        int maxWidth;
+        /** 上一个输入字符是否为换行（决定结尾是否补一个空行） */
+        boolean afterNewline;
+
+        void reset() {
+            out.setLength(0);
+            units = 0;
+            run = 0;
+            maxWidth = 0;
+            afterNewline = false;
+            segments = null;
+        }
+
+        void ensure(int n) {
+            if (n <= ends.length) return;
+            int cap = Math.max(n, ends.length * 2);
+            ends = Arrays.copyOf(ends, cap);
+            widths = Arrays.copyOf(widths, cap);
+            breakAfter = Arrays.copyOf(breakAfter, cap);
+            space = Arrays.copyOf(space, cap);
+            runs = Arrays.copyOf(runs, cap);
+        }
+
+        int width() {
+            return units == 0 ? 0 : widths[units - 1];
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final GlyphWidths glyphs;
+    private final GlyphIndex emojis;
+    private final int innerPx;
+    private final double widthMul;
+    private final int maxLines;
+    private final boolean autoWrap;
+    private final String ellipsis;
+    private final String ellipsisEscaped;
+    private final int ellipsisPx;
+
+    TextLayout(GlyphWidths glyphs, GlyphIndex emojis, int innerPx, double widthMul, int maxLines, String ellipsis, boolean autoWrap) {
+        this.glyphs = glyphs;
+        this.emojis = emojis;
+        this.innerPx = innerPx;
+        this.widthMul = widthMul;
+        this.maxLines = Math.max(1, maxLines);
+        this.autoWrap = autoWrap;
+        String e = ellipsis == null ? "" : ellipsis;
+        this.ellipsis = e;
+        StringBuilder sb = new StringBuilder(e.length() + 4);
+        for (int i = 0; i < e.length(); i++) appendEscaped(sb, e.charAt(i));
+        this.ellipsisEscaped = sb.toString();
+        this.ellipsisPx = scaled(glyphs.width(e));
+    }
+
+    /**
+     * 对原始聊天文本排版
+     */
+    Result layout(String raw) {
+        return layout(raw == null ? "" : raw, null);
+    }
+
+    /** 对组件消息按样式段排版；来自 String 接口的消息仍按字符串排版 */
+    Result layout(ChatRuns message) {
+        return message.plain ? layout(message.text, null) : layout(message.text, message);
+    }
+
+    private Result layout(String in, ChatRuns runs) {
+        final Scratch s = SCRATCH.get();
+        s.reset();
+        final boolean styled = runs != null;
+        if (styled) s.segments = new ArrayList<>(Math.min(maxLines, 4));
+        final List<String> lines = new ArrayList<>(Math.min(maxLines, 4));
+
+        final int n = in.length();
+        int i = 0;
+        while (i < n) {
+            char c = in.charAt(i);
+            if (styled) {
+                while (s.run < runs.ends.length - 1 && i >= runs.ends[s.run]) s.run++;
+            }
+            final int bold = styled && runs.bold[s.run] ? 1 : 0;
+
+            // § 旧式颜色/格式码：整对跳过
+            if (c == '§' && i + 1 < n && isLegacyCode(in.charAt(i + 1))) {
+                i += 2;
+                continue;
+            }
+            if (c == '\r') {
+                i++;
+                continue;
+            }
+            if (c == '\n') {
+                i++;
+                if (lines.size() == maxLines - 1) {
+                    commitCapped(s, lines);
+                    return result(s, lines);
+                }
+                commit(s, lines, s.units, s.units);
+                s.afterNewline = true;
+                continue;
+            }
+
+            // :emoji: -> 字形索引里的字符；索引没有时退回 %img_emoji% 交给 PAPI。作为不可拆分的单元
+            // （组件消息不经过 PAPI，索引里没有的记号按普通文字处理）
+            if (c == ':') {
+                int end = emojiEnd(in, i);
+                String glyph = end > 0 && emojis.ready() ? emojis.lookup(in.substring(i + 1, end)) : null;
+                if (end > 0 && (glyph != null || !styled)) {
+                    int start = s.out.length();
+                    if (glyph != null) s.out.append(glyph);
+                    else s.out.append("%img_").append(in, i + 1, end).append('%');
+                    int w = 0;
+                    for (int k = start; k < s.out.length(); ) {
+                        int g = s.out.codePointAt(k);
+                        w += scaled(glyphs.advance(g) + bold);
+                        k += Character.charCount(g);
+                    }
+                    if (!place(s, lines, w, true, false)) return result(s, lines);
+                    i = end + 1;
+                    continue;
+                }
+            }
+
+            int cp = Character.codePointAt(in, i);
+            i += Character.charCount(cp);
+            if (!styled && cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) appendEscaped(s.out, (char) cp);
+            else s.out.appendCodePoint(cp);
+            boolean isSpace = cp == ' ';
+            if (!place(s, lines, scaled(glyphs.advance(cp) + bold), isSpace || isCjk(cp), isSpace)) {
+                return result(s, lines);
+            }
+        }
+
+        if (s.units > 0 || lines.isEmpty() || s.afterNewline) commit(s, lines, s.units, s.units);
+        return result(s, lines);
+    }
+
+    private static Result result(Scratch s, List<String> lines) {
+        return new Result(lines, s.maxWidth, s.segments);
+    }
+
+    /**
+     * 把刚追加到 out 尾部的单元登记到当前行；超宽时先断行，直到放得下为止。
+     * 断行只删除 out 的头部，新单元的字符始终留在尾部，无需拷出再放回。
+     * 返回 false 表示已经到达行数上限并完成了省略号截断，调用方应停止。
+     */
+    private boolean place(Scratch s, List<String> lines, int w, boolean breakable, boolean isSpace) {
+        s.afterNewline = false;
+        boolean cjkLike = breakable && !isSpace;
+
+        // 带到下一行的单元加上新单元仍可能超宽：再判断一次，带过去的那段没有断点时就在它末尾硬断
+        while (autoWrap && s.units > 0 && s.width() + w > innerPx) {
+            if (lines.size() == maxLines - 1) {
+                commitCapped(s, lines);
+                return false;
+            }
+
+            int brk = lastBreak(s, cjkLike);
+            if (isSpace) {
+                // 新单元本身就是空格：整行提交，行尾的空格直接吞掉
+                commit(s, lines, s.units, s.units);
+                s.out.setLength(0);
+                return true;
+            } else if (brk < 0) {
+                // 没有可用的断点：在放得下的最后一个单元之后硬断，剩下的留在新行
+                int fit = fitUnits(s);
+                commit(s, lines, fit, fit);
+            } else {
+                // 断在 brk 之后，brk 之后的单元带到下一行
+                int visible = s.space[brk] ? brk : brk + 1;
+                commit(s, lines, visible, brk + 1);
+            }
+        }
+
+        s.ensure(s.units + 1);
+        int u = s.units++;
+        s.ends[u] = s.out.length();
+        s.widths[u] = (u == 0 ? 0 : s.widths[u - 1]) + w;
+        s.space[u] = isSpace;
+        s.runs[u] = s.run;
+        s.breakAfter[u] = breakable;
+        // CJK / 表情前面同样允许断行
+        if (cjkLike && u > 0) s.breakAfter[u - 1] = true;
+        return true;
+    }
+
+    /** 当前行从头开始放得下的单元数（至少 1 个，单个超宽单元独占一行） */
+    private int fitUnits(Scratch s) {
+        int n = s.units;
+        while (n > 1 && s.widths[n - 1] > innerPx) n--;
+        return n;
+    }
+
+    /** 最后一个允许断行的单元下标；若新单元是 CJK，则当前行末尾本身就是断点 */
+    private static int lastBreak(Scratch s, boolean nextIsCjk) {
+        if (nextIsCjk) return s.units - 1;
+        for (int u = s.units - 1; u >= 0; u--) {
+            if (s.breakAfter[u]) return u;
+        }
+        return -1;
+    }
+
+    /**
+     * 提交当前行的前 visible 个单元为一行，并把 [carryFrom, units) 的单元挪到新行开头；
+     * out 中尚未登记的尾部字符随之前移
+     */
+    private static void commit(Scratch s, List<String> lines, int visible, int carryFrom) {
+        int endIdx = visible == 0 ? 0 : s.ends[visible - 1];
+        int width = visible == 0 ? 0 : s.widths[visible - 1];
+        lines.add(s.out.substring(0, endIdx));
+        if (s.segments != null) s.segments.add(segments(s, visible, endIdx));
+        s.maxWidth = Math.max(s.maxWidth, width);
+
+        int carryStart = carryFrom == 0 ? 0 : s.ends[carryFrom - 1];
+        int carryBase = carryFrom == 0 ? 0 : s.widths[carryFrom - 1];
+        int carried = s.units - carryFrom;
+        s.out.delete(0, carryStart);
+        for (int k = 0; k < carried; k++) {
+            int from = carryFrom + k;
+            s.ends[k] = s.ends[from] - carryStart;
+            s.widths[k] = s.widths[from] - carryBase;
+            s.breakAfter[k] = s.breakAfter[from];
+            s.space[k] = s.space[from];
+            s.runs[k] = s.runs[from];
+        }
+        s.units = carried;
+    }
+
+    /** 前 visible 个单元的样式段，最后一段延伸到 lineEnd（省略号并入最后一段） */
+    private static int[] segments(Scratch s, int visible, int lineEnd) {
+        if (visible == 0) return lineEnd == 0 ? new int[0] : new int[]{lineEnd, s.run};
+        int count = 1;
+        for (int k = 1; k < visible; k++) if (s.runs[k] != s.runs[k - 1]) count++;
+        int[] seg = new int[count * 2];
+        int j = 0;
+        for (int k = 0; k < visible; k++) {
+            if (k == visible - 1 || s.runs[k + 1] != s.runs[k]) {
+                seg[j++] = s.ends[k];
+                seg[j++] = s.runs[k];
+            }
+        }
+        seg[seg.length - 2] = lineEnd;
+        return seg;
+    }
+
+    /**
+     * 行数已到上限且还有后续内容：当前行至少去掉最后一个单元，
+     * 再从前缀宽度数组里找能放下省略号的最长前缀
+     */
+    private void commitCapped(Scratch s, List<String> lines) {
+        int budget = innerPx - ellipsisPx;
+        int k = Math.max(0, s.units - 1);
+        while (k > 0 && s.widths[k - 1] > budget) k--;
+        if (k == 0 && ellipsisPx > innerPx) {
+            lines.add("");
+            if (s.segments != null) s.segments.add(new int[0]);
+        } else {
+            s.out.setLength(k == 0 ? 0 : s.ends[k - 1]);
+            s.out.append(s.segments != null ? ellipsis : ellipsisEscaped);
+            lines.add(s.out.toString());
+            if (s.segments != null) s.segments.add(segments(s, k, s.out.length()));
+            s.maxWidth = Math.max(s.maxWidth, (k == 0 ? 0 : s.widths[k - 1]) + ellipsisPx);
+        }
+        s.units = 0;
+        s.out.setLength(0);
+    }
+
+    private int scaled(int px) {
+        return widthMul == 1.0 ? px : (int) Math.round(px * widthMul);
+    }
+
+    /** in[from] == ':'，若构成 :name: 则返回结尾冒号下标，否则 -1 */
+    private static int emojiEnd(String in, int from) {
+        int j = from + 1, n = in.length();
+        while (j < n) {
+            char c = in.charAt(j);
+            if (c == ':') return j > from + 1 ? j : -1;
+            if (!(c == '_' || (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z'))) return -1;
+            j++;
+        }
+        return -1;
+    }
+
+    private static boolean isLegacyCode(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')
+            || (c >= 'k' && c <= 'o') || (c >= 'K' && c <= 'O') || c == 'r' || c == 'R';
+    }
+
+    private static boolean isCjk(int cp) {
+        return (cp >= 0x4E00 && cp <= 0x9FFF) || (cp >= 0x3040 && cp <= 0x30FF)
+            || (cp >= 0x3400 && cp <= 0x4DBF) || (cp >= 0xAC00 && cp <= 0xD7AF)
+            || (cp >= 0x3000 && cp <= 0x303F) || (cp >= 0xFF00 && cp <= 0xFFEF);
+    }
+
+    /** MiniMessage 转义：'<' 与 '\' 前加反斜杠 */
+    private static void appendEscaped(StringBuilder sb, char c) {
+        if (c == '<' || c == '\\') sb.append('\\');
+        sb.append(c);
+    }
+}
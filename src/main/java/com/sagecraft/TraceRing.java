@@ -0,0 +1,116 @@
+package com.sagecraft;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 发包热路径的调试追踪：定长环形缓冲区，写满后覆盖最旧的记录
+ *
+ * 每条记录只有基本类型字段（时间、线程、事件类型和三个整数参数），写入时不分配对象、不加锁，
+ * 任意线程可并发写；关闭时 {@link #record} 只读一个 volatile 就返回。
+ * 需要时用 /cb trace dump 写到文件，代替原来逐包打印的 INFO 日志。
+ */
+final class TraceRing {
+
+    /** 事件类型；a / b / c 的含义见各项注释 */
+    enum Kind {
+        /** 生成实体：实体 id，层（0=bg 1=tx 2=tail），观察者数 */
+        SPAWN,
+        /** 设置 passenger：载具实体 id，passenger 数，观察者数 */
+        PASSENGERS,
+        /** 销毁实体：首个实体 id，实体数，观察者数 */
+        DESTROY,
+        /** 说话者跨分区迁移：说话者链头首个实体 id，链长，- */
+        MIGRATE,
+        /** PacketEvents 登录：观察者实体 id，协议版本，- */
+        LOGIN
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+    /** 每个槽位最后写完的序号 + 1（0 表示空）；先写字段，最后发布序号 */
+    private final AtomicLongArray stamps;
+    private final long[] times;
+    private final long[] threads;
+    private final byte[] kinds;
+    private final int[] as, bs, cs;
+    private final long origin = System.nanoTime();
+    private volatile boolean enabled;
+
+    /** capacity 向上取 2 的幂 */
+    TraceRing(int capacity) {
+        int n = Integer.highestOneBit(Math.max(64, capacity) - 1) << 1;
+        this.mask = n - 1;
+        this.stamps = new AtomicLongArray(n);
+        this.times = new long[n];
+        this.threads = new long[n];
+        this.kinds = new byte[n];
+        this.as = new int[n];
+        this.bs = new int[n];
+        this.cs = new int[n];
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    void enable(boolean on) {
+        this.enabled = on;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /** 累计写入条数（含已被覆盖的） */
+    long recorded() {
+        return cursor.get();
+    }
+
+    void record(Kind kind, int a, int b, int c) {
+        if (!enabled) return;
+        long seq = cursor.getAndIncrement();
+        int i = (int) (seq & mask);
+        stamps.set(i, 0);
+        times[i] = System.nanoTime();
+        threads[i] = Thread.currentThread().threadId();
+        kinds[i] = (byte) kind.ordinal();
+        as[i] = a;
+        bs[i] = b;
+        cs[i] = c;
+        stamps.set(i, seq + 1);
+    }
+
+    /**
+     * 按写入顺序把缓冲区内容写到文件；写入过程中被覆盖或尚未写完的槽位跳过。
+     * 返回写出的条数（IO 线程调用）
+     */
+    int dump(Path file) throws IOException {
+        final long end = cursor.get();
+        final long start = Math.max(0, end - capacity());
+        int written = 0;
+        Files.createDirectories(file.getParent());
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            w.println("# seq\tms\tthread\tkind\ta\tb\tc");
+            for (long seq = start; seq < end; seq++) {
+                int i = (int) (seq & mask);
+                if (stamps.get(i) != seq + 1) continue;
+                long t = times[i];
+                long thread = threads[i];
+                int kind = kinds[i], a = as[i], b = bs[i], c = cs[i];
+                // 读字段期间被新记录覆盖：丢弃这一条
+                if (stamps.get(i) != seq + 1) continue;
+                w.printf("%d\t%.3f\t%d\t%s\t%d\t%d\t%d%n", seq, (t - origin) / 1e6, thread, KINDS[kind], a, b, c);
+                written++;
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,148 @@
+package com.sagecraft;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 按世界划分、以区块为桶的玩家空间索引
+ *
+ * 只在玩家跨区块 / 换世界 / 传送 / 进出服时更新桶，
+ * 查询某点附近的观察者只需要扫 (2r/16+1)^2 个桶，开销与局部人口密度成正比。
+ * 桶是写时复制的数组：更新只锁该区块的那一格（ConcurrentHashMap 的桶锁），查询不加锁，
+ * Folia 下各区域线程可以同时更新和查询。同一玩家的更新由其所在线程串行发生。
+ *
+ * 距离计算一律用这里记录的坐标（玩家每走过一格更新一次），不在别的线程上读 Player#getLocation：
+ * Folia 下玩家属于其所在区域，其他区域线程与 netty 线程都不能碰它。
+ */
+final class ViewerGrid {
+
+    /** 玩家当前所在的桶与最近一次记录的水平坐标（不可变，整体替换） */
+    private static final class Cell {
+        final UUID world;
+        final long key;
+        final double x, z;
+
+        Cell(UUID world, long key, double x, double z) {
+            this.world = world;
+            this.key = key;
+            this.x = x;
+            this.z = z;
+        }
+    }
+
+    // world -> chunkKey -> 桶内玩家
+    private final Map<UUID, Map<Long, Player[]>> worlds = new ConcurrentHashMap<>();
+    // player -> 当前桶
+    private final Map<UUID, Cell> positions = new ConcurrentHashMap<>();
+
+    private static long chunkKey(int cx, int cz) {
+        return ((long) cx << 32) ^ (cz & 0xFFFFFFFFL);
+    }
+
+    /** 更新玩家位置；坐标每次都记下，只有跨区块/换世界时才真正挪桶 */
+    void update(Player player) {
+        update(player, player.getLocation());
+    }
+
+    void update(Player player, Location to) {
+        World w = to.getWorld();
+        if (w == null) return;
+        long key = chunkKey(to.getBlockX() >> 4, to.getBlockZ() >> 4);
+        UUID worldId = w.getUID();
+
+        Cell old = positions.put(player.getUniqueId(), new Cell(worldId, key, to.getX(), to.getZ()));
+        if (old != null && old.key == key && old.world.equals(worldId)) return;
+        if (old != null) removeFromBucket(player, old);
+
+        worlds.computeIfAbsent(worldId, k -> new ConcurrentHashMap<>())
+              .merge(key, new Player[]{player}, ViewerGrid::concat);
+    }
+
+    /** 玩家离线时移除 */
+    void remove(Player player) {
+        Cell old = positions.remove(player.getUniqueId());
+        if (old != null) removeFromBucket(player, old);
+    }
+
+    /**
+     * 枚举 center 周围 range 格以内（水平距离）的玩家
+     */
+    void forEachNear(Location center, double range, Consumer<Player> action) {
+        World w = center.getWorld();
+        if (w == null) return;
+        Map<Long, Player[]> buckets = worlds.get(w.getUID());
+        if (buckets == null || buckets.isEmpty()) return;
+
+        final double x = center.getX(), z = center.getZ();
+        final double r2 = range * range;
+        final int minCx = (int) Math.floor(x - range) >> 4, maxCx = (int) Math.floor(x + range) >> 4;
+        final int minCz = (int) Math.floor(z - range) >> 4, maxCz = (int) Math.floor(z + range) >> 4;
+
+        for (int cx = minCx; cx <= maxCx; cx++) {
+            for (int cz = minCz; cz <= maxCz; cz++) {
+                Player[] bucket = buckets.get(chunkKey(cx, cz));
+                if (bucket == null) continue;
+                for (Player p : bucket) {
+                    Cell c = positions.get(p.getUniqueId());
+                    if (c == null) continue;
+                    double dx = c.x - x, dz = c.z - z;
+                    if (dx * dx + dz * dz <= r2) action.accept(p);
+                }
+            }
+        }
+    }
+
+    /** 玩家到 at 的水平距离平方；不在索引里或不在同一世界时为 Double.MAX_VALUE */
+    double distanceSquared(Location at, UUID player) {
+        Cell c = positions.get(player);
+        World w = at.getWorld();
+        if (c == null || w == null || !c.world.equals(w.getUID())) return Double.MAX_VALUE;
+        double dx = c.x - at.getX(), dz = c.z - at.getZ();
+        return dx * dx + dz * dz;
+    }
+
+    /** 两个玩家之间的水平距离平方；规则同上 */
+    double distanceSquared(UUID a, UUID b) {
+        Cell ca = positions.get(a), cb = positions.get(b);
+        if (ca == null || cb == null || !ca.world.equals(cb.world)) return Double.MAX_VALUE;
+        double dx = ca.x - cb.x, dz = ca.z - cb.z;
+        return dx * dx + dz * dz;
+    }
+
+    void clear() {
+        worlds.clear();
+        positions.clear();
+    }
+
+    private void removeFromBucket(Player player, Cell cell) {
+        Map<Long, Player[]> buckets = worlds.get(cell.world);
+        if (buckets == null) return;
+        // 返回 null 时整格移除；每个世界的桶表保留（数量只与世界数有关）
+        buckets.computeIfPresent(cell.key, (k, bucket) -> without(bucket, player));
+    }
+
+    private static Player[] concat(Player[] a, Player[] b) {
+        Player[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    private static Player[] without(Player[] bucket, Player player) {
+        for (int i = 0; i < bucket.length; i++) {
+            if (!bucket[i].equals(player)) continue;
+            if (bucket.length == 1) return null;
+            Player[] out = new Player[bucket.length - 1];
+            System.arraycopy(bucket, 0, out, 0, i);
+            System.arraycopy(bucket, i + 1, out, i, bucket.length - i - 1);
+            return out;
+        }
+        return bucket;
+    }
+}